@@ -0,0 +1,102 @@
+package org.spigotmc.builder.benchmark;
+
+import difflib.DiffUtils;
+import difflib.Patch;
+import difflib.PatchFailedException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and applying a unified diff the way it is done for every file in CraftBukkit's {@code nms-patches}
+ * <p>
+ * The source file and the patch are generated, so the numbers don't depend on a checked out CraftBukkit repository.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiffPatchBenchmark {
+    private static final int CONTEXT_LINES = 3;
+
+    @Param({"500", "5000"})
+    private int sourceLines;
+
+    /**
+     * Every n-th line of the source is changed by the patch
+     */
+    @Param({"25"})     // Has to be larger than twice the context, so the hunks don't overlap
+    private int changeInterval;
+
+    private List<String> cleanSource;
+    private List<String> patchLines;
+    private Patch parsedPatch;
+
+    @Setup
+    public void setup() {
+        cleanSource = new ArrayList<>(sourceLines);
+
+        for (int i = 0; i < sourceLines; ++i) {
+            cleanSource.add("        this.field" + i + " = computeSomething(" + i + ", world, blockPosition);");
+        }
+
+        patchLines = new ArrayList<>();
+        patchLines.add("--- a/Clean.java");
+        patchLines.add("+++ b/Clean.java");
+
+        // Replaces every n-th line with three lines, keeping three lines of context like 'diff -u' does
+        int addedLines = 0;
+        for (int i = 0; i < sourceLines; i += changeInterval) {
+            int start = Math.max(0, i - CONTEXT_LINES);
+            int end = Math.min(sourceLines, i + CONTEXT_LINES + 1);
+
+            patchLines.add("@@ -" + (start + 1) + "," + (end - start) + " +" + (start + 1 + addedLines) + "," + (end - start + 2) + " @@");
+
+            for (int j = start; j < end; ++j) {
+                String line = cleanSource.get(j);
+
+                if (j == i) {
+                    patchLines.add("-" + line);
+                    patchLines.add("+        // CraftBukkit start");
+                    patchLines.add("+" + line.replace("computeSomething", "computeSomethingElse"));
+                    patchLines.add("+        // CraftBukkit end");
+                } else {
+                    patchLines.add(" " + line);
+                }
+            }
+
+            addedLines += 2;
+        }
+
+        parsedPatch = DiffUtils.parseUnifiedDiff(patchLines);
+    }
+
+    @Benchmark
+    public Patch parse() {
+        return DiffUtils.parseUnifiedDiff(patchLines);
+    }
+
+    @Benchmark
+    public List<?> apply() throws PatchFailedException {
+        return DiffUtils.patch(cleanSource, parsedPatch);
+    }
+
+    @Benchmark
+    public List<?> parseAndApply() throws PatchFailedException {
+        return DiffUtils.patch(cleanSource, DiffUtils.parseUnifiedDiff(patchLines));
+    }
+}
@@ -0,0 +1,81 @@
+package org.spigotmc.builder.benchmark;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.spigotmc.builder.Utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Extracting the {@code net/minecraft} classes from a synthetic mapped server jar before decompiling them
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ExtractZipBenchmark {
+    @Param({"5000"})
+    private int classCount;
+
+    private File tmpDir;
+    private File jar;
+    private File targetDir;
+
+    @Setup(Level.Trial)
+    public void createJar() throws IOException {
+        tmpDir = Files.createTempDirectory("bt-bench-zip").toFile();
+        jar = new File(tmpDir, "server.jar");
+
+        Random random = new Random(0);
+
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+            for (int i = 0; i < classCount; ++i) {
+                // Mix of NMS and library classes, like in the real jar
+                String pkg = i % 4 == 0 ? "com/google/common/collect/" : "net/minecraft/server/";
+                byte[] content = new byte[1024 + random.nextInt(16 * 1024)];
+                random.nextBytes(content);
+
+                out.putNextEntry(new ZipEntry(pkg + "Class" + i + ".class"));
+                out.write(content);
+                out.closeEntry();
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void cleanTarget() throws IOException {
+        targetDir = new File(tmpDir, "classes");
+        FileUtils.deleteDirectory(targetDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteJar() throws IOException {
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    @Benchmark
+    public long extractZip() throws IOException {
+        return Utils.extractZip(jar, targetDir, s -> s.startsWith("net/minecraft"));
+    }
+}
@@ -0,0 +1,79 @@
+package org.spigotmc.builder.benchmark;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.spigotmc.builder.dummy.BuildInfo;
+import org.spigotmc.builder.dummy.VersionInfo;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the version JSON from hub.spigotmc.org and {@code BuildData/info.json}
+ * <p>
+ * BuildTools currently creates a new {@link Gson} instance for every parse, which is compared against a shared one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GsonBenchmark {
+    private static final String BUILD_INFO_JSON = "{\n" +
+            "    \"name\": \"3000\",\n" +
+            "    \"description\": \"Jenkins build 3000\",\n" +
+            "    \"refs\": {\n" +
+            "        \"BuildData\": \"a4785704979a469daa2b7f6826c84e7fe886bb03\",\n" +
+            "        \"Bukkit\": \"2e6ee8f2c11a7af61fd4bfa36d6bc4e2c9c3a8c3\",\n" +
+            "        \"CraftBukkit\": \"b45915b8a62de8f2a59e2f1aa1a1cd8c0b2b34a5\",\n" +
+            "        \"Spigot\": \"7e2c7a8ca3cc3c6aab1dd04ab28d33ef3a8b0fe1\"\n" +
+            "    },\n" +
+            "    \"toolsVersion\": 126,\n" +
+            "    \"javaVersions\": [60, 60]\n" +
+            "}";
+
+    private static final String VERSION_INFO_JSON = "{\n" +
+            "    \"minecraftVersion\": \"1.17\",\n" +
+            "    \"serverUrl\": \"https://launcher.mojang.com/v1/objects/0a269b5f2c5b93b1712d0f5dc43b6182b9ab254e/server.jar\",\n" +
+            "    \"minecraftHash\": \"7ed1e8f6b3ad3ba6d2d4cc4b2e7f2fe5\",\n" +
+            "    \"accessTransforms\": \"bukkit-1.17.at\",\n" +
+            "    \"classMappings\": \"bukkit-1.17-cl.csrg\",\n" +
+            "    \"memberMappings\": \"bukkit-1.17-members.csrg\",\n" +
+            "    \"packageMappings\": \"package.srg\",\n" +
+            "    \"classMapCommand\": \"java -cp {0} net.md_5.specialsource.SpecialSource --only . --only net/minecraft --auto-lvt BASIC --auto-member SYNTHETIC -i {1} -m {2} -o {3}\",\n" +
+            "    \"memberMapCommand\": \"java -cp {0} net.md_5.specialsource.SpecialSource --only . --only net/minecraft --auto-member LOGGER --auto-member TOKENS -i {1} -m {2} -o {3}\",\n" +
+            "    \"finalMapCommand\": \"java -jar BuildData/bin/SpecialSource.jar --only . --only net/minecraft -i {0} --access-transformer {1} -m {2} -o {3}\",\n" +
+            "    \"decompileCommand\": \"java -jar BuildData/bin/fernflower.jar -dgs=1 -hdc=0 -asc=1 -udv=0 -rsy=1 -aoa=1 {0} {1}\",\n" +
+            "    \"toolsVersion\": 126\n" +
+            "}";
+
+    private final Gson gson = new Gson();
+
+    @Benchmark
+    public BuildInfo buildInfoNewGson() {
+        return new Gson().fromJson(BUILD_INFO_JSON, BuildInfo.class);
+    }
+
+    @Benchmark
+    public BuildInfo buildInfoSharedGson() {
+        return gson.fromJson(BUILD_INFO_JSON, BuildInfo.class);
+    }
+
+    @Benchmark
+    public VersionInfo versionInfoNewGson() {
+        return new Gson().fromJson(VERSION_INFO_JSON, VersionInfo.class);
+    }
+
+    @Benchmark
+    public VersionInfo versionInfoSharedGson() {
+        return gson.fromJson(VERSION_INFO_JSON, VersionInfo.class);
+    }
+}
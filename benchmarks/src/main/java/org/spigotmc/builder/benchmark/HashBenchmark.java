@@ -0,0 +1,73 @@
+package org.spigotmc.builder.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.spigotmc.builder.HashAlgo;
+import org.spigotmc.builder.Hasher;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashing jar-sized inputs, like it is done for the vanilla server jar and every download
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashBenchmark {
+    @Param({"1048576", "41943040"})     // 1 MiB and 40 MiB (about the size of a server jar)
+    private int size;
+
+    @Param({"MD5", "SHA256", "SHA512"})
+    private HashAlgo hashAlgo;
+
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        data = new byte[size];
+        new Random(0).nextBytes(data);
+    }
+
+    @Benchmark
+    public String hashAlgo() {
+        return hashAlgo.getHash(data);
+    }
+
+    /**
+     * Hashing in 64 KiB chunks, like the data arrives when downloading or reading a file
+     */
+    @Benchmark
+    public String hasherChunked() {
+        Hasher hasher = new Hasher(hashAlgo);
+
+        for (int offset = 0; offset < data.length; offset += 64 * 1024) {
+            hasher.update(data, offset, Math.min(64 * 1024, data.length - offset));
+        }
+
+        return hasher.getHash(hashAlgo);
+    }
+
+    /**
+     * Computing all the hashes in a single pass over the data
+     */
+    @Benchmark
+    public Map<HashAlgo, String> hasherAllAlgorithms() {
+        return new Hasher(HashAlgo.values())
+                .update(data)
+                .getHashes();
+    }
+}
@@ -0,0 +1,41 @@
+package org.spigotmc.builder.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.spigotmc.builder.Utils;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HexBenchmark {
+    @Param({"16", "32", "64"})  // MD5, SHA-256 and SHA-512 digest lengths
+    private int length;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        bytes = new byte[length];
+        new Random(0).nextBytes(bytes);
+    }
+
+    @Benchmark
+    public String toHex() {
+        return Utils.toHex(bytes);
+    }
+}
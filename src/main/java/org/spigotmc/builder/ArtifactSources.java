@@ -0,0 +1,215 @@
+package org.spigotmc.builder;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Knows where every kind of remote artifact can be downloaded from
+ * <p>
+ * Every {@link Type} has an ordered list of sources. A source is the base URL of a mirror (e.g. {@code file:///srv/mirror/maven/}
+ * or {@code http://cache.lan/maven/}) or {@value #UPSTREAM}, which stands for the URLs BuildTools uses by default.
+ * An artifact is addressed by a path relative to the base URL, which is the same for all the sources of a type.
+ * <p>
+ * The sources are tried one after another until one succeeds. Sources that failed are tried last
+ * and healthy sources are ordered by their average response time (sources that have not been used yet come first).
+ */
+public class ArtifactSources {
+    public static final String UPSTREAM = "upstream";
+
+    private static final double LATENCY_WEIGHT = 0.3;
+
+    private final Map<Type, List<Source>> sources = new EnumMap<>(Type.class);
+
+    private ArtifactSources(@NotNull Map<Type, List<String>> baseUrls) {
+        for (Type type : Type.values()) {
+            List<Source> list = new ArrayList<>();
+
+            for (String baseUrl : baseUrls.getOrDefault(type, Collections.singletonList(UPSTREAM))) {
+                list.add(new Source(baseUrl.equals(UPSTREAM) || baseUrl.endsWith("/") ? baseUrl : baseUrl + "/", list.size()));
+            }
+
+            sources.put(type, list);
+        }
+    }
+
+    /**
+     * @return Sources that only use the upstream URLs
+     */
+    @NotNull
+    public static ArtifactSources upstream() {
+        return new ArtifactSources(Collections.emptyMap());
+    }
+
+    /**
+     * Reads the sources from a JSON file, that maps the key of a {@link Type} (e.g. {@code minecraft-server})
+     * to a list of base URLs. Types that are not listed only use {@value #UPSTREAM}.
+     *
+     * @throws BuilderException If the file could not be read or is invalid
+     */
+    @NotNull
+    public static ArtifactSources load(@NotNull File file) throws BuilderException {
+        Map<String, List<String>> json;
+
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            json = new Gson().fromJson(reader, new TypeToken<Map<String, List<String>>>() { }.getType());
+        } catch (IOException | JsonParseException ex) {
+            throw new BuilderException("Could not read the artifact sources from '" + file + "'", ex);
+        }
+
+        Map<Type, List<String>> baseUrls = new EnumMap<>(Type.class);
+
+        if (json != null) {
+            for (Map.Entry<String, List<String>> entry : json.entrySet()) {
+                Type type = Type.getByKey(entry.getKey());
+
+                if (type == null) {
+                    throw new BuilderException("Unknown artifact type '" + entry.getKey() + "' in '" + file + "'");
+                }
+
+                if (entry.getValue() == null || entry.getValue().isEmpty() || entry.getValue().contains(null)) {
+                    throw new BuilderException("The artifact type '" + entry.getKey() + "' in '" + file + "' needs at least one source");
+                }
+
+                baseUrls.put(type, entry.getValue());
+            }
+        }
+
+        return new ArtifactSources(baseUrls);
+    }
+
+    /**
+     * Tries the sources of the given type, until {@code action} succeeds for one of them
+     *
+     * @param type        The type of the artifact
+     * @param path        The path of the artifact relative to the base URL of a source
+     * @param upstreamUrl The URL to use for {@value #UPSTREAM} or {@code null} for the default one of {@code type}
+     * @param action      Downloads the artifact from the given URL
+     *
+     * @return The result of {@code action}
+     *
+     * @throws FileNotFoundException If no source has the artifact
+     * @throws IOException           If all sources failed (if {@code action} did not throw an {@code IOException}, it is the cause)
+     */
+    public <T> T fetch(@NotNull Type type, @NotNull String path, @Nullable String upstreamUrl, @NotNull SourceAction<T> action) throws IOException {
+        List<Source> candidates;
+        synchronized (this) {
+            candidates = new ArrayList<>(sources.get(type));
+            candidates.sort(Comparator.comparingInt((Source source) -> source.failures)
+                    .thenComparingDouble(source -> source.latencyMillis)
+                    .thenComparingInt(source -> source.index));
+        }
+
+        Exception lastException = null;
+
+        for (int i = 0; i < candidates.size(); ++i) {
+            Source source = candidates.get(i);
+            String url = source.baseUrl.equals(UPSTREAM) ? (upstreamUrl != null ? upstreamUrl : type.upstreamBaseUrl + path) : source.baseUrl + path;
+            long start = System.nanoTime();
+
+            try {
+                T result = action.run(url);
+
+                synchronized (this) {
+                    source.recordSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                }
+
+                return result;
+            } catch (FileNotFoundException ex) {
+                // The source is fine, it just does not have this artifact
+                lastException = ex;
+            } catch (Exception ex) {
+                synchronized (this) {
+                    source.recordFailure();
+                }
+
+                lastException = ex;
+            }
+
+            if (i + 1 < candidates.size()) {
+                System.err.println("*** Could not get '" + url + "' (" + lastException.getMessage() + "), trying the next source");
+            }
+        }
+
+        if (lastException instanceof IOException) {
+            throw (IOException) lastException;
+        }
+
+        throw new IOException("Could not get '" + path + "' from any source", lastException);
+    }
+
+    public enum Type {
+        GIT("git", "https://hub.spigotmc.org/stash/scm/spigot/"),
+        VERSIONS("versions", "https://hub.spigotmc.org/versions/"),
+        MINECRAFT_SERVER("minecraft-server", "https://s3.amazonaws.com/Minecraft.Download/versions/"),
+        MAVEN("maven", "https://static.spigotmc.org/maven/"),
+        PORTABLE_GIT("portable-git", "https://github.com/git-for-windows/git/releases/download/v2.30.0.windows.1/");
+
+        public final String key;
+        public final String upstreamBaseUrl;
+
+        Type(String key, String upstreamBaseUrl) {
+            this.key = key;
+            this.upstreamBaseUrl = upstreamBaseUrl;
+        }
+
+        @Nullable
+        public static Type getByKey(@NotNull String key) {
+            for (Type type : values()) {
+                if (type.key.equals(key.toLowerCase(Locale.ROOT))) {
+                    return type;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    public interface SourceAction<T> {
+        /**
+         * @param url The URL of the artifact
+         *
+         * @throws Exception An exception that makes the next source being tried
+         */
+        T run(@NotNull String url) throws Exception;
+    }
+
+    private static class Source {
+        private final String baseUrl;
+        private final int index;
+
+        private int failures;
+        private double latencyMillis;
+
+        private Source(@NotNull String baseUrl, int index) {
+            this.baseUrl = baseUrl;
+            this.index = index;
+        }
+
+        private void recordSuccess(long millis) {
+            failures = 0;
+            latencyMillis = latencyMillis == 0 ? millis : LATENCY_WEIGHT * millis + (1 - LATENCY_WEIGHT) * latencyMillis;
+        }
+
+        private void recordFailure() {
+            ++failures;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.spigotmc.builder;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A content-addressed store for artifacts created during a build
+ * <p>
+ * Every artifact is identified by its type and a key, that is a hash over all the inputs needed to create it.
+ * As long as the inputs don't change, an artifact is only ever created once.
+ */
+public class ArtifactStore {
+    private final File storeDir;
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    public ArtifactStore(@NotNull File storeDir) {
+        this.storeDir = storeDir;
+    }
+
+    @NotNull
+    public File getFile(@NotNull String type, @NotNull String key, @NotNull String extension) {
+        return new File(new File(storeDir, type), key + extension);
+    }
+
+    /**
+     * Returns the artifact with the given key or creates it, if it does not exist yet
+     * <p>
+     * The {@link ArtifactCreator} is called with a temporary file that gets moved into the store,
+     * once the creator returned successfully. This way a failed or aborted build never leaves a broken artifact behind.
+     *
+     * @param type      The type of the artifact (used as directory name)
+     * @param key       The key identifying the artifact (usually a hash over all inputs)
+     * @param extension The file extension including the leading dot (e.g. {@code .jar})
+     * @param creator   Creates the artifact if needed
+     *
+     * @return The file inside the store
+     *
+     * @throws Exception Any exception thrown by the {@link ArtifactCreator}
+     */
+    @NotNull
+    public File getOrCreate(@NotNull String type, @NotNull String key, @NotNull String extension, @NotNull ArtifactCreator creator) throws Exception {
+        File file = getFile(type, key, extension);
+
+        synchronized (locks.computeIfAbsent(type + '/' + key, k -> new Object())) {
+            if (file.isFile()) {
+                System.out.println("Using cached " + type + " artifact '" + file + "'");
+                BuildReport.addCacheLookup(true);
+
+                return file;
+            }
+
+            BuildReport.addCacheLookup(false);
+
+            Files.createDirectories(file.getParentFile().toPath());
+
+            File tmpFile = new File(file.getParentFile(), key + ".tmp" + extension);
+            Files.deleteIfExists(tmpFile.toPath());
+
+            try {
+                creator.create(tmpFile);
+
+                if (!tmpFile.isFile()) {
+                    throw new IllegalStateException("Creating the " + type + " artifact did not produce the expected file '" + tmpFile + "'");
+                }
+
+                Utils.moveReplacing(tmpFile.toPath(), file.toPath());
+            } finally {
+                try {
+                    Files.deleteIfExists(tmpFile.toPath());
+                } catch (IOException ignore) {
+                }
+            }
+        }
+
+        return file;
+    }
+
+    public interface ArtifactCreator {
+        /**
+         * @param outFile The file the artifact has to be written to
+         *
+         * @throws Exception An exception that may be thrown while creating the artifact
+         */
+        void create(@NotNull File outFile) throws Exception;
+    }
+}
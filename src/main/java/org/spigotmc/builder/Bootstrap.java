@@ -7,22 +7,22 @@ import joptsimple.util.EnumConverter;
 import org.apache.commons.io.output.TeeOutputStream;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileDescriptor;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.Arrays;
-import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 public class Bootstrap {
     /**
@@ -36,6 +36,9 @@ public class Bootstrap {
 
     public static final File CWD = new File(".").toPath().toAbsolutePath().normalize().toFile();
     private static final File LOG_FILE = new File(CWD, "BuildTools.log.txt");
+    private static final File REPORT_FILE = new File(CWD, "BuildTools.report.json");
+    private static final File LOG_ARCHIVE_DIR = new File(CWD, "work" + File.separator + "logs");
+    private static final int LOG_BUFFER_SIZE = 64 * 1024;
 
     public static void main(String[] args) throws IOException {
         checkJVM();
@@ -54,8 +57,9 @@ public class Bootstrap {
                 .withRequiredArg()
                 .ofType(File.class)
                 .defaultsTo(CWD);
-        OptionSpec<String> jenkinsVersionFlag = optionParser.accepts("rev", "Version to build")
+        OptionSpec<String> jenkinsVersionFlag = optionParser.accepts("rev", "Comma separated list of versions to build")
                 .withRequiredArg()
+                .withValuesSeparatedBy(',')
                 .defaultsTo("latest");
         OptionSpec<Compile> toCompileFlag = optionParser.accepts("compile", "Comma separated list of software to compile")
                 .withRequiredArg()
@@ -65,6 +69,58 @@ public class Bootstrap {
                 .defaultsTo(Compile.SPIGOT);
         OptionSpec<Void> onlyCompileOnChangeFlag = optionParser.acceptsAll(Arrays.asList("compile-if-changed", "only-compile-on-changed"),
                 "Run BuildTools only when changes are detected in the repository");
+        OptionSpec<Void> inProcessToolsFlag = optionParser.accepts("run-tools-in-process",
+                "Run the remapping and decompiling tools inside the BuildTools JVM instead of starting a new one for each"
+                        + " (Java 17 and older only: installs a Security Manager while they run to trap their exit calls, which Java 17 warns about as deprecated)");
+        OptionSpec<Void> mavenDaemonFlag = optionParser.accepts("maven-daemon",
+                "Use the Maven daemon (mvnd) for all Maven invocations if it is installed");
+        OptionSpec<String> mavenThreadsFlag = optionParser.accepts("maven-threads", "Thread count passed to Maven using '-T' (e.g. 4 or 1C)")
+                .withRequiredArg();
+        OptionSpec<Integer> stageCpusFlag = optionParser.accepts("stage-cpus", "Amount of CPU cores the concurrently running build stages may use")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(Runtime.getRuntime().availableProcessors());
+        OptionSpec<Integer> stageMemoryFlag = optionParser.accepts("stage-memory", "Amount of memory (in MiB) the concurrently running build stages may use")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(Utils.getTotalMemoryMb());
+        OptionSpec<Void> isolatedCheckoutsFlag = optionParser.accepts("isolated-checkouts",
+                "Check out every version into its own directory inside 'work/worktrees/' instead of the shared repositories"
+                        + " (they borrow the objects of the shared repositories, which keep the checked out commits under 'refs/buildtools/worktrees/';"
+                        + " deleting these refs and pruning the shared repositories breaks the checkouts, delete 'work/worktrees/' in that case)");
+        OptionSpec<Void> shallowFlag = optionParser.accepts("shallow",
+                "Only fetch the commits needed to build the requested versions instead of the whole history of every repository");
+        OptionSpec<Integer> parallelRevisionsFlag = optionParser.accepts("parallel-revisions",
+                "Amount of versions (see '--rev') to build at the same time (implies '--isolated-checkouts')")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(1);
+        OptionSpec<Void> offlineFlag = optionParser.accepts("offline",
+                "Only use the version information, repositories and artifacts that are already present, without accessing the network");
+        OptionSpec<Integer> metadataTtlFlag = optionParser.accepts("metadata-ttl",
+                "Amount of seconds cached version information is used without checking hub.spigotmc.org for changes")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(300);
+        OptionSpec<File> sourcesFlag = optionParser.accepts("sources",
+                "JSON file with the mirrors to download git repositories, version information and other artifacts from")
+                .withRequiredArg()
+                .ofType(File.class);
+        OptionSpec<Integer> logRetentionFlag = optionParser.accepts("log-retention",
+                "Amount of disk space (in MiB) the compressed logs of previous runs inside 'work/logs/' may use")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(100);
+        OptionSpec<Void> taskLogsFlag = optionParser.accepts("task-logs",
+                "Additionally write the output of every build stage into its own file inside 'work/task-logs/'");
+        OptionSpec<Void> patchScriptFlag = optionParser.accepts("spigot-patch-script",
+                "Apply the Spigot patches using Spigot's 'applyPatches.sh' instead of the built-in patcher (requires bash)");
+        OptionSpec<Integer> decompileShardsFlag = optionParser.accepts("decompile-shards",
+                "Amount of decompiler processes to run at the same time (defaults to as many as the stage CPUs and memory allow)")
+                .withRequiredArg()
+                .ofType(Integer.class);
+        OptionSpec<Void> fullDecompileFlag = optionParser.accepts("full-decompile",
+                "Decompile all Minecraft classes into 'work/decompile-<version>/' instead of only the ones the patches need");
 
         OptionSet options = optionParser.parse(args);
 
@@ -77,28 +133,70 @@ public class Bootstrap {
             return;
         }
 
-        final boolean skipUpdate = options.has(skipUpdateFlag);
-        final boolean exitAfterFetch = options.has(exitAfterFetchFlag);
-        final boolean generateSrc = options.has(generateSrcFlag);
-        final boolean generateDoc = options.has(generateDocFlag);
-        final boolean isDevMode = options.has(devModeFlag);
-        final boolean disableJavaCheck = options.has(disableJavaCheckFlag);
-        final boolean onlyCompileOnChange = options.has(onlyCompileOnChangeFlag);
-        final boolean hasJenkinsVersion = options.has(jenkinsVersionFlag);
-
-        final String jenkinsVersion = options.valueOf(jenkinsVersionFlag);
-        final List<Compile> toCompile = options.valuesOf(toCompileFlag);
-        final File outputDir = outputDirFlag.value(options);
-
-        if (toCompile.isEmpty()) {
-            toCompile.add(Compile.NONE);
-        } else if (toCompile.size() > 1 && toCompile.contains(Compile.NONE)) {
-            toCompile.removeIf(compile -> compile != Compile.NONE);
+        final Builder.BuilderConfiguration cfg = new Builder.BuilderConfiguration();
+        cfg.skipUpdate = options.has(skipUpdateFlag);
+        cfg.exitAfterFetch = options.has(exitAfterFetchFlag);
+        cfg.generateSrc = options.has(generateSrcFlag);
+        cfg.generateDoc = options.has(generateDocFlag);
+        cfg.isDevMode = options.has(devModeFlag);
+        cfg.disableJavaCheck = options.has(disableJavaCheckFlag);
+        cfg.onlyCompileOnChange = options.has(onlyCompileOnChangeFlag);
+        cfg.hasJenkinsVersion = options.has(jenkinsVersionFlag);
+        cfg.runToolsInProcess = options.has(inProcessToolsFlag);
+        cfg.useMavenDaemon = options.has(mavenDaemonFlag);
+        cfg.isolatedCheckouts = options.has(isolatedCheckoutsFlag);
+        cfg.shallow = options.has(shallowFlag);
+        cfg.offline = options.has(offlineFlag);
+        cfg.taskLogs = options.has(taskLogsFlag);
+        cfg.usePatchScript = options.has(patchScriptFlag);
+        cfg.fullDecompile = options.has(fullDecompileFlag);
+
+        cfg.jenkinsVersions = options.valuesOf(jenkinsVersionFlag).stream()
+                .map(String::trim)
+                .filter(rev -> !rev.isEmpty())
+                .distinct()
+                .collect(Collectors.toList());
+        cfg.toCompile = options.valuesOf(toCompileFlag);
+        cfg.outputDir = outputDirFlag.value(options);
+        cfg.mavenThreads = options.valueOf(mavenThreadsFlag);
+        cfg.sourcesFile = options.valueOf(sourcesFlag);
+        cfg.stageCpus = options.valueOf(stageCpusFlag);
+        cfg.stageMemoryMb = options.valueOf(stageMemoryFlag);
+        cfg.parallelRevisions = options.valueOf(parallelRevisionsFlag);
+        cfg.metadataTtlSeconds = options.valueOf(metadataTtlFlag);
+        cfg.decompileShards = options.has(decompileShardsFlag) ? options.valueOf(decompileShardsFlag) : 0;   // 0 means choose automatically
+        final int logRetentionMb = options.valueOf(logRetentionFlag);
+
+        if (cfg.stageCpus <= 0 || cfg.stageMemoryMb <= 0 || cfg.parallelRevisions <= 0 || (options.has(decompileShardsFlag) && cfg.decompileShards <= 0)) {
+            System.err.println("--stage-cpus, --stage-memory, --parallel-revisions and --decompile-shards have to be larger than 0");
+
+            System.exit(1);
+            return;
+        }
+
+        if (cfg.metadataTtlSeconds < 0 || logRetentionMb < 0) {
+            System.err.println("--metadata-ttl and --log-retention can't be negative");
+
+            System.exit(1);
+            return;
+        }
+
+        if (cfg.jenkinsVersions.isEmpty()) {
+            System.err.println("--rev needs at least one version");
+
+            System.exit(1);
+            return;
+        }
+
+        if (cfg.toCompile.isEmpty()) {
+            cfg.toCompile.add(Compile.NONE);
+        } else if (cfg.toCompile.size() > 1 && cfg.toCompile.contains(Compile.NONE)) {
+            cfg.toCompile.removeIf(compile -> compile != Compile.NONE);
         }
 
         /* Start of actual BuildTools logic */
 
-        startLogFile(); // Write application output to file
+        startLogFile(logRetentionMb); // Write application output to file
 
         // Disable https cert check
         if (options.has(disableCertFlag)) {
@@ -115,12 +213,14 @@ public class Bootstrap {
         /* Start Builder */
 
         final long buildStart = System.nanoTime();  // Using nanos to be independent of the system clock
+        final BuildReport report = new BuildReport(getBuildVersion());
 
         try {
-            new Builder(CWD, new Builder.BuilderConfiguration(skipUpdate, exitAfterFetch, generateSrc, generateDoc,
-                    isDevMode, disableJavaCheck, onlyCompileOnChange, hasJenkinsVersion, jenkinsVersion, toCompile, outputDir))
-                    .runBuild();
+            new Builder(CWD, cfg, report).runBuild();
         } catch (Exception ex) {
+            report.finish(ex);
+            writeReport(report);
+
             System.err.println();
 
             if (ex instanceof BuilderException) {
@@ -138,10 +238,22 @@ public class Bootstrap {
         }
 
         final long buildEnd = System.nanoTime();
+
+        report.finish(null);
+        writeReport(report);
+
         System.out.println("Finished in " + new DecimalFormat("#0.00", DecimalFormatSymbols.getInstance(Locale.ENGLISH))
                 .format(TimeUnit.NANOSECONDS.toMillis(buildEnd - buildStart) / 1000.0) + " seconds");
     }
 
+    private static void writeReport(BuildReport report) {
+        try {
+            report.write(REPORT_FILE);
+        } catch (IOException ex) {
+            System.err.println("Could not write build report to '" + REPORT_FILE + "': " + ex.getMessage());
+        }
+    }
+
     private static void printToolVersion() {
         System.out.println("Running BuildTools '" + getBuildVersion() + "' (#" + getBuildNumber(getBuildVersion()) +
                 " - Based on #" + ORIGINAL_BUILD_NUMBER + ")");
@@ -154,7 +266,7 @@ public class Bootstrap {
     }
 
     @Nullable
-    private static String getBuildVersion() {
+    static String getBuildVersion() {
         return Builder.class.getPackage().getImplementationVersion();
     }
 
@@ -194,10 +306,19 @@ public class Bootstrap {
         }
     }
 
-    private static void startLogFile() throws FileNotFoundException, UnsupportedEncodingException {
-        FileOutputStream fileOut = new FileOutputStream(Bootstrap.LOG_FILE);
+    private static void startLogFile(int logRetentionMb) throws IOException {
+        // The log of the last run is compressed in the background
+        LogArchive logArchive = new LogArchive(LOG_ARCHIVE_DIR, (long) logRetentionMb << 20);
+        logArchive.archive(LOG_FILE);
+
+        // Writes are batched by TaskOutput's writer thread and only flushed once it runs out of work
+        OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(Bootstrap.LOG_FILE), LOG_BUFFER_SIZE);
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            // Still prints through the replaced streams, so it has to finish before they are flushed
+            logArchive.awaitCompletion(TimeUnit.SECONDS.toMillis(10));
+            TaskOutput.flush();
+
             System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.out)));
             System.setErr(new PrintStream(new FileOutputStream(FileDescriptor.err)));
 
@@ -210,5 +331,8 @@ public class Bootstrap {
 
         System.setOut(new PrintStream(new TeeOutputStream(System.out, fileOut), false, StandardCharsets.UTF_8.displayName()));
         System.setErr(new PrintStream(new TeeOutputStream(System.err, fileOut), false, StandardCharsets.UTF_8.displayName()));
+
+        // Concurrent tasks print through their own channels and nobody has to wait for the console or the log file
+        TaskOutput.install();
     }
 }
\ No newline at end of file
@@ -0,0 +1,109 @@
+package org.spigotmc.builder;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A hash over everything that goes into the jars of a build, so a build whose inputs did not change can be skipped
+ * <p>
+ * The fingerprint is stored inside a manifest ({@code <jar>.manifest.json}) next to every output jar.
+ * An output is only considered up to date if its manifest has the same fingerprint
+ * and the jar still has the hash that has been recorded when the manifest was written.
+ */
+public class BuildFingerprint {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+    private final Map<String, String> inputs = new TreeMap<>();
+    private String hash;
+
+    /**
+     * Adds an input to the fingerprint
+     *
+     * @param key   The name of the input (e.g. {@code commit.Spigot})
+     * @param value The value of the input, {@code null} is an input like any other
+     */
+    @NotNull
+    public BuildFingerprint put(@NotNull String key, @Nullable Object value) {
+        if (hash != null) throw new IllegalStateException("The fingerprint has already been computed");
+
+        inputs.put(key, String.valueOf(value));
+        return this;
+    }
+
+    /**
+     * @return The SHA-256 over all inputs as lower case hex string
+     */
+    @NotNull
+    public String getHash() {
+        if (hash == null) {
+            // Inputs are sorted by their key and serialized as JSON, so the result does not depend on the order they have been added in
+            hash = new Hasher(HashAlgo.SHA256).update(new Gson().toJson(inputs)).getHash(HashAlgo.SHA256);
+        }
+
+        return hash;
+    }
+
+    /**
+     * @param jar       The output jar
+     * @param hashCache The cache used to hash the jar
+     *
+     * @return {@code true} if the given jar exists and has been created using the same inputs
+     */
+    public boolean isUpToDate(@NotNull File jar, @NotNull HashCache hashCache) {
+        File manifestFile = getManifestFile(jar);
+
+        if (!jar.isFile() || !manifestFile.isFile()) {
+            return false;
+        }
+
+        try (Reader reader = Files.newBufferedReader(manifestFile.toPath(), StandardCharsets.UTF_8)) {
+            Manifest manifest = GSON.fromJson(reader, Manifest.class);
+
+            return manifest != null &&
+                    getHash().equals(manifest.fingerprint) &&
+                    manifest.sha256 != null &&
+                    manifest.sha256.equalsIgnoreCase(hashCache.getHash(jar, HashAlgo.SHA256));
+        } catch (IOException | JsonParseException ex) {
+            System.err.println("Could not read manifest '" + manifestFile + "', ignoring it (" + ex.getMessage() + ")");
+        }
+
+        return false;
+    }
+
+    /**
+     * Writes the manifest for the given jar, that has just been created using the inputs of this fingerprint
+     */
+    public void writeManifest(@NotNull File jar, @NotNull HashCache hashCache) throws IOException {
+        Manifest manifest = new Manifest(getHash(), hashCache.getHash(jar, HashAlgo.SHA256), inputs);
+
+        Utils.writeAtomically(getManifestFile(jar), writer -> GSON.toJson(manifest, writer));
+    }
+
+    @NotNull
+    public static File getManifestFile(@NotNull File jar) {
+        return new File(jar.getPath() + ".manifest.json");
+    }
+
+    private static class Manifest {
+        private final String fingerprint;
+        private final String sha256;
+        private final Map<String, String> inputs;
+
+        private Manifest(String fingerprint, String sha256, Map<String, String> inputs) {
+            this.fingerprint = fingerprint;
+            this.sha256 = sha256;
+            this.inputs = inputs;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package org.spigotmc.builder;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A graph of build stages that runs every stage as soon as all of its dependencies finished
+ * <p>
+ * Independent stages run concurrently, as long as the sum of their declared CPU and memory requirements
+ * does not exceed the configured budget. A stage that needs more than the whole budget is run once nothing else is running.
+ * <p>
+ * If a stage fails, no further stages are started. The stages that are already running are awaited
+ * and the exception of the first failed stage is thrown.
+ */
+public class BuildPipeline {
+    private final int cpuBudget;
+    private final int memoryBudgetMb;
+    private final BuildReport report;
+
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+
+    /**
+     * @param cpuBudget      The amount of CPU cores the running stages may use together
+     * @param memoryBudgetMb The amount of memory (in MiB) the running stages may use together
+     * @param report         The report every stage is recorded in as a phase
+     */
+    public BuildPipeline(int cpuBudget, int memoryBudgetMb, @NotNull BuildReport report) {
+        if (cpuBudget <= 0) throw new IllegalArgumentException("cpuBudget needs to be larger than 0");
+        if (memoryBudgetMb <= 0) throw new IllegalArgumentException("memoryBudgetMb needs to be larger than 0");
+
+        this.cpuBudget = cpuBudget;
+        this.memoryBudgetMb = memoryBudgetMb;
+        this.report = report;
+    }
+
+    /**
+     * Adds a new stage to the pipeline
+     * <p>
+     * Dependencies have to be added before the stages depending on them, which makes cycles impossible.
+     *
+     * @param name         The unique name of the stage
+     * @param cpus         The amount of CPU cores this stage is expected to use
+     * @param memoryMb     The amount of memory (in MiB) this stage is expected to use (including child processes)
+     * @param task         The work to do
+     * @param dependencies The names of the stages that have to finish before this one can start
+     *
+     * @throws IllegalArgumentException If the name is already taken or a dependency is unknown
+     */
+    public void addStage(@NotNull String name, int cpus, int memoryMb, @NotNull StageTask task, @NotNull String... dependencies) {
+        if (stages.containsKey(name)) throw new IllegalArgumentException("A stage named '" + name + "' already exists");
+
+        for (String dependency : dependencies) {
+            if (!stages.containsKey(dependency)) {
+                throw new IllegalArgumentException("Stage '" + name + "' depends on the unknown stage '" + dependency + "'");
+            }
+        }
+
+        stages.put(name, new Stage(name, Math.max(1, Math.min(cpus, cpuBudget)), Math.max(0, Math.min(memoryMb, memoryBudgetMb)),
+                task, dependencies));
+    }
+
+    public boolean hasStage(@NotNull String name) {
+        return stages.containsKey(name);
+    }
+
+    /**
+     * Runs all stages and blocks until they finished or one of them failed
+     * <p>
+     * The stages are reported as part of the phase the calling thread is in and print through their own
+     * {@link TaskOutput.Channel}, that is part of the channel of the calling thread.
+     *
+     * @throws Exception The exception thrown by the first stage that failed
+     */
+    public void run() throws Exception {
+        List<Stage> pending = new ArrayList<>(stages.values());
+        Set<String> finished = new HashSet<>();
+        Set<Stage> running = new HashSet<>();
+        BlockingQueue<StageResult> results = new LinkedBlockingQueue<>();
+
+        BuildReport.Phase parentPhase = BuildReport.getCurrentPhase();
+        TaskOutput.Channel parentChannel = TaskOutput.getCurrentChannel();
+        ExecutorService pool = Executors.newCachedThreadPool();
+
+        int usedCpus = 0;
+        int usedMemoryMb = 0;
+        Throwable failure = null;
+
+        try {
+            while (true) {
+                if (failure == null) {
+                    for (Stage stage : new ArrayList<>(pending)) {
+                        if (!finished.containsAll(stage.dependencies)) {
+                            continue;
+                        }
+
+                        if (!running.isEmpty() &&
+                                (usedCpus + stage.cpus > cpuBudget || usedMemoryMb + stage.memoryMb > memoryBudgetMb)) {
+                            continue;
+                        }
+
+                        pending.remove(stage);
+                        running.add(stage);
+                        usedCpus += stage.cpus;
+                        usedMemoryMb += stage.memoryMb;
+
+                        pool.execute(() -> results.add(runStage(stage, parentPhase, parentChannel)));
+                    }
+                }
+
+                if (running.isEmpty()) {
+                    break;
+                }
+
+                StageResult result = results.take();
+
+                running.remove(result.stage);
+                usedCpus -= result.stage.cpus;
+                usedMemoryMb -= result.stage.memoryMb;
+
+                if (result.exception != null) {
+                    if (failure == null) {
+                        failure = result.exception;
+                    }
+                } else {
+                    finished.add(result.stage.name);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        if (failure instanceof Exception) {
+            throw (Exception) failure;
+        } else if (failure != null) {
+            throw (Error) failure;
+        }
+
+        if (!pending.isEmpty()) {
+            throw new IllegalStateException("Some stages could not be run: " + pending);
+        }
+    }
+
+    @NotNull
+    @SuppressWarnings("try")
+    private StageResult runStage(@NotNull Stage stage, @Nullable BuildReport.Phase parentPhase, @Nullable TaskOutput.Channel parentChannel) {
+        try (TaskOutput.Channel ignored = TaskOutput.openChannel(stage.name, parentChannel)) {
+            System.out.println("==> Starting stage '" + stage.name + "'");
+
+            final long start = System.nanoTime();
+            BuildReport.Phase phase = report.startPhase(stage.name, parentPhase);
+
+            try {
+                stage.task.run();
+            } catch (Exception | Error ex) {
+                phase.setFailed();
+
+                System.err.println("==> Stage '" + stage.name + "' failed");
+                return new StageResult(stage, ex);
+            } finally {
+                phase.close();
+            }
+
+            System.out.println("==> Finished stage '" + stage.name + "' in " +
+                    new DecimalFormat("#0.00", DecimalFormatSymbols.getInstance(Locale.ENGLISH))
+                            .format(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) / 1000.0) + " seconds");
+
+            return new StageResult(stage, null);
+        }
+    }
+
+    public interface StageTask {
+        /**
+         * @throws Exception An exception that may be thrown by the stage
+         */
+        void run() throws Exception;
+    }
+
+    private static class Stage {
+        private final String name;
+        private final int cpus;
+        private final int memoryMb;
+        private final StageTask task;
+        private final List<String> dependencies;
+
+        private Stage(String name, int cpus, int memoryMb, StageTask task, String[] dependencies) {
+            this.name = name;
+            this.cpus = cpus;
+            this.memoryMb = memoryMb;
+            this.task = task;
+
+            List<String> dependencyList = new ArrayList<>();
+            Collections.addAll(dependencyList, dependencies);
+            this.dependencies = Collections.unmodifiableList(dependencyList);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static class StageResult {
+        private final Stage stage;
+        private final Throwable exception;
+
+        private StageResult(Stage stage, Throwable exception) {
+            this.stage = stage;
+            this.exception = exception;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package org.spigotmc.builder;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the wall time, I/O and cache usage of every phase of a build and writes them as a JSON report
+ * <p>
+ * Phases are bound to the thread that started them, so code deep inside a phase can record its I/O using the static
+ * {@code add*} methods without having to know about the report. Recording something while no phase is active is a no-op.
+ * <p>
+ * Only I/O done by BuildTools itself is measured. Work done by child processes (e.g. Maven or a decompiler
+ * that is not run in-process) only shows up as wall time.
+ */
+public class BuildReport {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().serializeNulls().create();
+    private static final ThreadLocal<Phase> CURRENT_PHASE = new ThreadLocal<>();
+
+    private final transient long startNanos = System.nanoTime();
+
+    private final String buildToolsVersion;
+    private final String startedAt;
+    private Long durationMs;
+    private Boolean successful;
+    private String error;
+    private final List<Phase> phases = new ArrayList<>();
+
+    public BuildReport(@Nullable String buildToolsVersion) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ENGLISH);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        this.buildToolsVersion = buildToolsVersion;
+        this.startedAt = dateFormat.format(new Date());
+    }
+
+    /**
+     * Starts a new phase and makes it the current one of the calling thread until it is closed
+     * <p>
+     * Phases may be nested. Closing the inner phase makes the outer phase the current one again.
+     *
+     * @param name The name of the phase (does not need to be unique)
+     *
+     * @return The new phase that should be closed using try-with-resources
+     */
+    @NotNull
+    public Phase startPhase(@NotNull String name) {
+        return startPhase(name, CURRENT_PHASE.get());
+    }
+
+    /**
+     * Starts a new phase that is reported as part of {@code parent}, even if that has been started by another thread
+     *
+     * @see #startPhase(String)
+     */
+    @NotNull
+    public Phase startPhase(@NotNull String name, @Nullable Phase parent) {
+        Phase phase = new Phase(name, parent, CURRENT_PHASE.get(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+
+        synchronized (phases) {
+            phases.add(phase);
+        }
+
+        CURRENT_PHASE.set(phase);
+        return phase;
+    }
+
+    /**
+     * @return The phase the calling thread is currently in
+     */
+    @Nullable
+    public static Phase getCurrentPhase() {
+        return CURRENT_PHASE.get();
+    }
+
+    public static void addBytesRead(long bytes) {
+        Phase phase = CURRENT_PHASE.get();
+
+        if (phase != null) {
+            phase.addBytesRead(bytes);
+        }
+    }
+
+    public static void addBytesWritten(long bytes) {
+        Phase phase = CURRENT_PHASE.get();
+
+        if (phase != null) {
+            phase.addBytesWritten(bytes);
+        }
+    }
+
+    public static void addBytesDownloaded(long bytes) {
+        Phase phase = CURRENT_PHASE.get();
+
+        if (phase != null) {
+            phase.addBytesDownloaded(bytes);
+        }
+    }
+
+    /**
+     * @param hit {@code true} if a cached result could be used, {@code false} if it had to be created
+     */
+    public static void addCacheLookup(boolean hit) {
+        addCacheLookups(hit ? 1 : 0, hit ? 0 : 1);
+    }
+
+    public static void addCacheLookups(int hits, int misses) {
+        Phase phase = CURRENT_PHASE.get();
+
+        if (phase != null) {
+            phase.addCacheLookups(hits, misses);
+        }
+    }
+
+    /**
+     * Marks the build as finished
+     *
+     * @param failure The exception that made the build fail or {@code null} if it has been successful
+     */
+    public synchronized void finish(@Nullable Throwable failure) {
+        this.durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        this.successful = failure == null;
+        this.error = failure != null ? failure.getMessage() : null;
+    }
+
+    public synchronized void write(@NotNull File file) throws IOException {
+        synchronized (phases) {
+            try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+                GSON.toJson(this, writer);
+            }
+        }
+    }
+
+    public class Phase implements AutoCloseable {
+        private final transient Phase previousPhase;
+
+        private final String name;
+        private final String parent;
+        private final String thread;
+        private final long startMs;
+        private Long durationMs;
+        private boolean successful = true;
+        private long bytesRead;
+        private long bytesWritten;
+        private long bytesDownloaded;
+        private int cacheHits;
+        private int cacheMisses;
+
+        private Phase(@NotNull String name, @Nullable Phase parentPhase, @Nullable Phase previousPhase, long startMs) {
+            this.previousPhase = previousPhase;
+
+            this.name = name;
+            this.parent = parentPhase != null ? parentPhase.name : null;
+            this.thread = Thread.currentThread().getName();
+            this.startMs = startMs;
+        }
+
+        public synchronized void addBytesRead(long bytes) {
+            this.bytesRead += bytes;
+        }
+
+        public synchronized void addBytesWritten(long bytes) {
+            this.bytesWritten += bytes;
+        }
+
+        public synchronized void addBytesDownloaded(long bytes) {
+            this.bytesDownloaded += bytes;
+        }
+
+        public synchronized void addCacheLookups(int hits, int misses) {
+            this.cacheHits += hits;
+            this.cacheMisses += misses;
+        }
+
+        public synchronized void setFailed() {
+            this.successful = false;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (durationMs == null) {
+                durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) - startMs;
+            }
+
+            if (CURRENT_PHASE.get() == this) {
+                if (previousPhase != null) {
+                    CURRENT_PHASE.set(previousPhase);
+                } else {
+                    CURRENT_PHASE.remove();
+                }
+            }
+        }
+    }
+}
@@ -1,27 +1,62 @@
 package org.spigotmc.builder;
 
 import com.google.gson.Gson;
-import difflib.DiffUtils;
-import difflib.Patch;
 import org.apache.commons.io.FileUtils;
 import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.treewalk.TreeWalk;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.spigotmc.builder.dummy.BuildInfo;
 import org.spigotmc.builder.dummy.VersionInfo;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 public class Builder {
     private final File cwd;
@@ -29,22 +64,52 @@ public class Builder {
 
     private String gitCmd = "git";
     private String mvnCmd = "mvn";
+    private final String mvndCmd = "mvnd";
     private String bashCmd = "bash";
+    private boolean bashChecked = false;
     private final String javaCmd = Paths.get(System.getProperty("java.home"), "bin", "java").toAbsolutePath().normalize().toString();
 
-    private BuildInfo buildInfo = new BuildInfo("dev", "Development", 0,
+    private static final Pattern COMMIT_ID_PATTERN = Pattern.compile("[0-9a-fA-F]{40}");
+    private static final int SHALLOW_DEEPEN_STEP = 64;
+    private static final int SHALLOW_MAX_DEPTH = 4096;
+    private static final String PATCHED_SOURCES_PATH = "src/main/java/";
+    private static final String SELECTIVE_DECOMPILE_MARKER = ".selective";
+    private static final String ISOLATED_CHECKOUT_REF_PREFIX = "refs/buildtools/worktrees/";
+    private static final int DECOMPILE_MIN_SOURCES_PER_SHARD = 50;
+    private static final Pattern SPIGOT_PATCH_NMS_FILE_PATTERN = Pattern.compile("^diff --git a/" + PATCHED_SOURCES_PATH + "(net/minecraft/\\S+\\.java) ");
+
+    private static final int MAVEN_MEMORY_MB = 1024;
+    private static final int TOOL_MEMORY_MB = 1024;
+    private static final String SPIGOT_ERROR_MESSAGE = "Error compiling Spigot. Please check the wiki for FAQs.\n" +
+            "If this does not resolve your issue then please pastebin the entire BuildTools.log.txt file when seeking support.";
+
+    private static final BuildInfo DEFAULT_BUILD_INFO = new BuildInfo("dev", "Development", 0,
             null, new BuildInfo.Refs("master", "master", "master", "master"));
 
-    public Builder(File cwd, BuilderConfiguration cfg) {
+    private final BuildReport report;
+
+    private File workDir;
+    private HashCache hashCache;
+    private ArtifactStore artifactStore;
+    private ArtifactSources sources;
+    private MetadataCache metadataCache;
+
+    private final Map<String, Object> fileLocks = new ConcurrentHashMap<>();
+
+    public Builder(File cwd, BuilderConfiguration cfg, BuildReport report) {
         this.cwd = cwd;
         this.cfg = cfg;
+        this.report = report;
     }
 
+    @SuppressWarnings("try")
     public void runBuild() throws Exception {
         if ((cfg.isDevMode || cfg.skipUpdate) && cfg.hasJenkinsVersion) {
             throw new BuilderException("Using --dev or --dont-update with --rev makes no sense, exiting.");
         }
 
+        sources = cfg.sourcesFile != null ? ArtifactSources.load(cfg.sourcesFile) : ArtifactSources.upstream();
+
         if (!prepareGitInstallation(cwd)) {
             throw new BuilderException("Could not run 'git' - Please install it on your machine\n" +
                     "More information at " + (Bootstrap.IS_WINDOWS ? "https://git-for-windows.github.io/" : "https://git-scm.com/downloads"));
@@ -56,17 +121,25 @@ public class Builder {
             throw new BuilderException("Could not run 'mvn' - Please install Maven3 on your machine");
         }
 
-        if (Utils.doesCommandFail(cwd, bashCmd, "-c", "exit")) {
-            throw new BuilderException("Could not run '" + bashCmd + "' - Please make sure it is available on your machine");
-        }
-
         System.out.println();
 
         /* Prepare working directory by cloning all needed git repositories */
 
-        File workDir = new File(cwd, "work");
+        workDir = new File(cwd, "work");
         Files.createDirectories(workDir.toPath());
 
+        hashCache = new HashCache(new File(workDir, "file-hashes.json"));
+        artifactStore = new ArtifactStore(new File(workDir, "artifacts"));
+        if (cfg.taskLogs) {
+            File taskLogDir = new File(workDir, "task-logs");
+            FileUtils.deleteDirectory(taskLogDir);  // Logs of the previous run
+            Files.createDirectories(taskLogDir.toPath());
+
+            TaskOutput.setTaskLogDir(taskLogDir);
+        }
+
+        metadataCache = new MetadataCache(new File(workDir, "metadata"), cfg.metadataTtlSeconds, cfg.offline, sources);
+
         Utils.MultiThreadedTask[] tasks = new Utils.MultiThreadedTask[GitRepository.values().length];
         for (int i = 0; i < GitRepository.values().length; ++i) {
             GitRepository repo = GitRepository.values()[i];
@@ -75,7 +148,22 @@ public class Builder {
                 File repoDir = new File(cwd, repo.repoName);
 
                 if (!new File(repoDir, ".git").isDirectory()) {
-                    Utils.gitClone(repo.gitUrl, repoDir, Bootstrap.AUTO_CRLF);
+                    if (cfg.offline) {
+                        throw new BuilderException("The repository '" + repoDir + "' does not exist and can't be cloned in offline mode");
+                    }
+
+                    try (BuildReport.Phase ignored = report.startPhase("git-clone-" + repo.repoName)) {
+                        if (cfg.shallow) {
+                            initShallowRepository(repo, repoDir);
+                        } else {
+                            sources.fetch(ArtifactSources.Type.GIT, repo.sourcePath, repo.gitUrl, url -> {
+                                FileUtils.deleteDirectory(repoDir);     // Left behind by a source that failed
+                                Utils.gitClone(url, repoDir, Bootstrap.AUTO_CRLF);
+                                return null;
+                            });
+                        }
+                    }
+
                     return 1;   // Successful clone
                 }
 
@@ -84,91 +172,403 @@ public class Builder {
         }
         boolean gitReposDidChange = Utils.runTasksMultiThreaded(tasks) == 1;    // 1 means at least one repo has been cloned
 
+        /* Resolve all the requested versions up front, so an unknown version fails before anything is built */
+
+        List<RevisionBuild> revisions = new ArrayList<>();
+
+        if (cfg.skipUpdate || cfg.isDevMode) {
+            revisions.add(new RevisionBuild(cfg.isDevMode ? "dev" : "current", DEFAULT_BUILD_INFO));
+        } else {
+            for (String rev : cfg.jenkinsVersions) {
+                BuildInfo buildInfo = resolveBuildInfo(rev);
+                RevisionBuild duplicate = null;
+
+                for (RevisionBuild revision : revisions) {
+                    if (Objects.equals(revision.buildInfo.getRefs(), buildInfo.getRefs())) {
+                        duplicate = revision;
+                        break;
+                    }
+                }
+
+                if (duplicate != null) {
+                    System.out.println("*** Version '" + rev + "' resolves to the same commits as '" + duplicate.rev + "', building it only once");
+                } else {
+                    revisions.add(new RevisionBuild(rev, buildInfo));
+                }
+            }
+        }
+
         try (Git bukkitGit = Git.open(new File(cwd, GitRepository.BUKKIT.repoName));
              Git craftBukkitGit = Git.open(new File(cwd, GitRepository.CRAFT_BUKKIT.repoName));
              Git spigotGit = Git.open(new File(cwd, GitRepository.SPIGOT.repoName));
              Git buildDataGit = Git.open(new File(cwd, GitRepository.BUILD_DATA.repoName))) {
+            if (!cfg.skipUpdate && cfg.offline) {
+                System.out.println("*** Offline mode, building from the commits that are already present");
+            } else if (!cfg.skipUpdate && cfg.shallow) {
+                // Only the commits needed by the requested revisions are fetched
+                gitReposDidChange = Utils.runTasksMultiThreaded(
+                        () -> fetchShallow(buildDataGit, GitRepository.BUILD_DATA, revisions) ? 1 : 0,
+                        () -> fetchShallow(bukkitGit, GitRepository.BUKKIT, revisions) ? 1 : 0,
+                        () -> fetchShallow(craftBukkitGit, GitRepository.CRAFT_BUKKIT, revisions) ? 1 : 0,
+                        () -> fetchShallow(spigotGit, GitRepository.SPIGOT, revisions) ? 1 : 0
+                ) == 1 || gitReposDidChange;
+            } else if (!cfg.skipUpdate) {
+                // Fetching once is enough for all the revisions, they are only checked out before being built.
+                // The repositories are checked in parallel, so a rebuild of already fetched commits does not touch the network
+                gitReposDidChange = Utils.runTasksMultiThreaded(
+                        () -> gitFetch(buildDataGit, GitRepository.BUILD_DATA, revisions) ? 1 : 0,
+                        () -> gitFetch(bukkitGit, GitRepository.BUKKIT, revisions) ? 1 : 0,
+                        () -> gitFetch(craftBukkitGit, GitRepository.CRAFT_BUKKIT, revisions) ? 1 : 0,
+                        () -> gitFetch(spigotGit, GitRepository.SPIGOT, revisions) ? 1 : 0
+                ) == 1 || gitReposDidChange;
+            }
 
             if (!cfg.skipUpdate) {
-                if (!cfg.isDevMode) {
-                    System.out.println("Attempting to build version: '" + cfg.jenkinsVersion + "'" +
-                            (!cfg.hasJenkinsVersion ? " use --rev <version> to override" : ""));
-
-                    String verInfo;
-                    try {
-                        verInfo = Utils.httpGet("https://hub.spigotmc.org/versions/" + cfg.jenkinsVersion + ".json");
-                    } catch (IOException ex) {
-                        throw new BuilderException("Could not get version '" + cfg.jenkinsVersion +
-                                "' does it exist? Try another version or use 'latest'", ex);
-                    }
-                    System.out.println("Found version");
-                    System.out.println(verInfo);
 
-                    // TODO: Abstract json parsing to not use a dummy class
-                    buildInfo = new Gson().fromJson(verInfo, BuildInfo.class);
+                // Checks if any of the 4 repositories have been updated via a git fetch, the --compile-if-changed flag is set and none of the repositories were cloned in this run.
+                if (!gitReposDidChange && cfg.onlyCompileOnChange) {
+                    System.out.println("*** No changes detected in any of the repositories!");
+                    System.out.println("*** Exiting due to the --compile-if-changes");
 
-                    if (Bootstrap.ORIGINAL_BUILD_NUMBER != -1 &&
-                            buildInfo.getToolsVersion() != -1 &&
-                            Bootstrap.ORIGINAL_BUILD_NUMBER < buildInfo.getToolsVersion()) {
-                        throw new BuilderException("**** Your BuildTools is out of date and will not build the requested version. " +
-                                "Please grab a new copy from https://github.com/SpraxDev/Spigot-BuildTools/releases/latest");
+                    return;
+                }
+            }
+
+            if (cfg.exitAfterFetch) {
+                revisions.get(0).checkout(bukkitGit, craftBukkitGit, spigotGit, buildDataGit);
+
+                System.out.println("Finished fetching all version unrelated data. Exiting because of '--exit-after-fetch'");
+                return;
+            }
+
+            boolean isolated = (cfg.isolatedCheckouts || cfg.parallelRevisions > 1) && !cfg.skipUpdate;
+            int parallelRevisions = isolated ? Math.min(cfg.parallelRevisions, revisions.size()) : 1;
+
+            if (!isolated && (cfg.isolatedCheckouts || cfg.parallelRevisions > 1)) {
+                System.err.println("*** Isolated checkouts are not possible together with --skip-update, building inside the working directory");
+            }
+
+            // Revisions running in parallel share the stage budget
+            int stageCpus = Math.max(1, cfg.stageCpus / parallelRevisions);
+            int stageMemoryMb = Math.max(1, cfg.stageMemoryMb / parallelRevisions);
+
+            Map<String, Exception> failedRevisions = Collections.synchronizedMap(new LinkedHashMap<>());
+            ExecutorService pool = Executors.newFixedThreadPool(parallelRevisions);
+            List<Future<?>> futures = new ArrayList<>();
+
+            for (RevisionBuild revision : revisions) {
+                futures.add(pool.submit(() -> {
+                    if (revisions.size() > 1) {
+                        System.out.println();
+                        System.out.println("*** Building version '" + revision.rev + "' (" + (revisions.indexOf(revision) + 1) + " of " + revisions.size() + ") ***");
                     }
 
-                    if (!cfg.disableJavaCheck) {
-                        if (buildInfo.getJavaVersions() == null) {
-                            buildInfo.setJavaVersions(new int[] {JavaVersion.JAVA_7.getVersion(), JavaVersion.JAVA_8.getVersion()});
+                    // Stages of versions built at the same time are told apart by the version in front of the stage name
+                    try (TaskOutput.Channel ignoredChannel = revisions.size() > 1 ? TaskOutput.openChannel(revision.rev, null) : null;
+                         BuildReport.Phase ignored = report.startPhase("build-" + revision.rev)) {
+                        if (revision.isUpToDate(bukkitGit, craftBukkitGit, spigotGit, buildDataGit)) {
+                            System.out.println("*** Version '" + revision.rev + "' has already been built from the same inputs, skipping it");
+                            return;
                         }
 
-                        if (buildInfo.getJavaVersions().length != 2) {
-                            throw new IllegalArgumentException("Expected only two Java versions, got " + JavaVersion.printVersions(buildInfo.getJavaVersions()));
+                        if (isolated) {
+                            revision.checkoutIsolated(bukkitGit, craftBukkitGit, spigotGit, buildDataGit);
+                        } else {
+                            revision.checkout(bukkitGit, craftBukkitGit, spigotGit, buildDataGit);
                         }
 
-                        JavaVersion curVersion = JavaVersion.getCurrentVersion();
-                        JavaVersion minVersion = JavaVersion.getByVersion(buildInfo.getJavaVersions()[0]);
-                        JavaVersion maxVersion = JavaVersion.getByVersion(buildInfo.getJavaVersions()[1]);
-
-                        if (curVersion.getVersion() < minVersion.getVersion() || curVersion.getVersion() > maxVersion.getVersion()) {
-                            throw new BuilderException("*** The version you have requested to build requires Java versions between " +
-                                    JavaVersion.printVersions(buildInfo.getJavaVersions()) + ", but you are using '" + curVersion + "'\n" +
-
-                                    "*** Please rerun BuildTools using an appropriate Java version. For obvious " +
-                                    "reasons outdated MC versions do not support Java versions that did not exist at their release.");
+                        revision.build(stageCpus, stageMemoryMb);
+                    } catch (Exception ex) {
+                        if (revisions.size() > 1) {
+                            System.err.println("*** Building version '" + revision.rev + "' failed, continuing with the remaining versions");
+                            ex.printStackTrace();
                         }
+
+                        failedRevisions.put(revision.rev, ex);
+                    } finally {
+                        revision.close();
                     }
+                }));
+            }
+
+            try {
+                for (Future<?> future : futures) {
+                    future.get();
                 }
+            } finally {
+                pool.shutdown();
 
-                BuildInfo finalBuildInfo = buildInfo;
-                gitReposDidChange = Utils.runTasksMultiThreaded(
-                        () -> Utils.gitPull(buildDataGit, finalBuildInfo.getRefs().getBuildData()) ? 1 : 0,
-                        () -> Utils.gitPull(bukkitGit, finalBuildInfo.getRefs().getBukkit()) ? 1 : 0,
-                        () -> Utils.gitPull(craftBukkitGit, finalBuildInfo.getRefs().getCraftBukkit()) ? 1 : 0,
-                        () -> Utils.gitPull(spigotGit, finalBuildInfo.getRefs().getSpigot()) ? 1 : 0
-                ) == 1 || gitReposDidChange;
+                // The class loaders are kept for the whole build, so all the revisions reuse the warmed up tools
+                InProcessJarRunner.close();
+            }
 
-                // Checks if any of the 4 repositories have been updated via a git fetch, the --compile-if-changed flag is set and none of the repositories were cloned in this run.
-                if (!gitReposDidChange && cfg.onlyCompileOnChange) {
-                    System.out.println("*** No changes detected in any of the repositories!");
-                    System.out.println("*** Exiting due to the --compile-if-changes");
+            if (revisions.size() == 1 && !failedRevisions.isEmpty()) {
+                throw failedRevisions.values().iterator().next();
+            }
 
-                    return;
+            if (!failedRevisions.isEmpty()) {
+                throw new BuilderException("Could not build " + failedRevisions.size() + " of " + revisions.size() +
+                        " versions: " + String.join(", ", failedRevisions.keySet()), failedRevisions.values().iterator().next());
+            }
+        }
+    }
+
+    @NotNull
+    @SuppressWarnings("try")
+    private BuildInfo resolveBuildInfo(@NotNull String rev) throws BuilderException {
+        System.out.println("Attempting to build version: '" + rev + "'" +
+                (!cfg.hasJenkinsVersion ? " use --rev <version> to override" : ""));
+
+        String verInfo;
+        try (BuildReport.Phase ignored = report.startPhase("fetch-version-" + rev)) {
+            verInfo = metadataCache.get(ArtifactSources.Type.VERSIONS, rev + ".json");
+        } catch (IOException ex) {
+            throw new BuilderException("Could not get version '" + rev +
+                    "' does it exist? Try another version or use 'latest'", ex);
+        }
+        System.out.println("Found version");
+        System.out.println(verInfo);
+
+        // TODO: Abstract json parsing to not use a dummy class
+        BuildInfo buildInfo = new Gson().fromJson(verInfo, BuildInfo.class);
+
+        if (Bootstrap.ORIGINAL_BUILD_NUMBER != -1 &&
+                buildInfo.getToolsVersion() != -1 &&
+                Bootstrap.ORIGINAL_BUILD_NUMBER < buildInfo.getToolsVersion()) {
+            throw new BuilderException("**** Your BuildTools is out of date and will not build the requested version. " +
+                    "Please grab a new copy from https://github.com/SpraxDev/Spigot-BuildTools/releases/latest");
+        }
+
+        if (!cfg.disableJavaCheck) {
+            if (buildInfo.getJavaVersions() == null) {
+                buildInfo.setJavaVersions(new int[] {JavaVersion.JAVA_7.getVersion(), JavaVersion.JAVA_8.getVersion()});
+            }
+
+            if (buildInfo.getJavaVersions().length != 2) {
+                throw new IllegalArgumentException("Expected only two Java versions, got " + JavaVersion.printVersions(buildInfo.getJavaVersions()));
+            }
+
+            JavaVersion curVersion = JavaVersion.getCurrentVersion();
+            JavaVersion minVersion = JavaVersion.getByVersion(buildInfo.getJavaVersions()[0]);
+            JavaVersion maxVersion = JavaVersion.getByVersion(buildInfo.getJavaVersions()[1]);
+
+            if (curVersion.getVersion() < minVersion.getVersion() || curVersion.getVersion() > maxVersion.getVersion()) {
+                throw new BuilderException("*** The version '" + rev + "' you have requested to build requires Java versions between " +
+                        JavaVersion.printVersions(buildInfo.getJavaVersions()) + ", but you are using '" + curVersion + "'\n" +
+
+                        "*** Please rerun BuildTools using an appropriate Java version. For obvious " +
+                        "reasons outdated MC versions do not support Java versions that did not exist at their release.");
+            }
+        }
+
+        return buildInfo;
+    }
+    /**
+     * The state of building a single version
+     */
+    private class RevisionBuild {
+        private final String rev;
+        private final BuildInfo buildInfo;
+
+        private File root;
+        private boolean isolated;
+        private Git bukkitGit;
+        private Git craftBukkitGit;
+        private Git spigotGit;
+        private Git buildDataGit;
+        private String craftBukkitRef;
+
+        private VersionInfo versionInfo;
+        private File vanillaJar;
+        private String classMapKey;
+        private String memberMapKey;
+        private String finalMapKey;
+        private File finalMappedJar;
+        private File decompileDir;
+        private File decompileTmpDir;
+        private boolean needsDecompile;
+        private boolean selectiveDecompile;
+        private int decompileShards;
+        private int patchThreads;
+        private int decompileSourceCount;
+        private List<File> decompileShardDirs;
+        private Map<String, ObjectId> patchedNmsBlobs;
+        private BuildFingerprint fingerprint;
+
+        private RevisionBuild(@NotNull String rev, @NotNull BuildInfo buildInfo) {
+            this.rev = rev;
+            this.buildInfo = buildInfo;
+        }
+
+        /**
+         * Computes the fingerprint of this revision and checks it against the manifests of the jars a previous run created
+         * <p>
+         * Everything is read from the object databases of the given repositories, so nothing has to be checked out.
+         * With {@code --skip-update} the working trees might contain local changes, so no fingerprint is computed.
+         *
+         * @return {@code true} if all the output jars exist and have been built from the same inputs
+         */
+        @SuppressWarnings("try")
+        private boolean isUpToDate(@NotNull Git bukkitGit, @NotNull Git craftBukkitGit, @NotNull Git spigotGit, @NotNull Git buildDataGit) throws IOException, BuilderException {
+            if (cfg.skipUpdate) {
+                return false;
+            }
+
+            try (BuildReport.Phase ignored = report.startPhase("check-fingerprint")) {
+                String buildDataCommit = resolveCommit(buildDataGit, buildInfo.getRefs().getBuildData());
+                VersionInfo expectedVersionInfo = parseVersionInfo(Utils.readGitFile(buildDataGit, buildDataCommit, "info.json"));
+
+                List<Compile> compileTargets = new ArrayList<>(cfg.toCompile);
+                Collections.sort(compileTargets);
+
+                fingerprint = new BuildFingerprint()
+                        .put("buildTools", Bootstrap.getBuildVersion())
+                        .put("java", JavaVersion.getCurrentVersion())
+                        .put("commit." + GitRepository.BUKKIT.repoName, resolveCommit(bukkitGit, buildInfo.getRefs().getBukkit()))
+                        .put("commit." + GitRepository.CRAFT_BUKKIT.repoName, resolveCommit(craftBukkitGit, buildInfo.getRefs().getCraftBukkit()))
+                        .put("commit." + GitRepository.SPIGOT.repoName, resolveCommit(spigotGit, buildInfo.getRefs().getSpigot()))
+                        .put("commit." + GitRepository.BUILD_DATA.repoName, buildDataCommit)
+                        .put("versionInfo", new Gson().toJson(expectedVersionInfo))
+                        .put("vanillaJar", expectedVersionInfo.getMinecraftHash())
+                        .put("compile", compileTargets)
+                        .put("dev", cfg.isDevMode)
+                        .put("generateSrc", cfg.generateSrc)
+                        .put("generateDoc", cfg.generateDoc);
+
+                List<OutputJar> outputJars = getOutputJars(expectedVersionInfo);
+                boolean upToDate = !outputJars.isEmpty();
+
+                for (OutputJar outputJar : outputJars) {
+                    if (!fingerprint.isUpToDate(outputJar.file, hashCache)) {
+                        upToDate = false;
+                        break;
+                    }
                 }
+
+                BuildReport.addCacheLookup(upToDate);
+                System.out.println("Fingerprint of version '" + rev + "': " + fingerprint.getHash());
+
+                return upToDate;
             }
+        }
 
-            if (cfg.exitAfterFetch) {
-                System.out.println("Finished fetching all version unrelated data. Exiting because of '--exit-after-fetch'");
-                return;
+        /**
+         * Builds this revision inside the repositories in the working directory, checking it out in place
+         */
+        private void checkout(@NotNull Git bukkitGit, @NotNull Git craftBukkitGit, @NotNull Git spigotGit, @NotNull Git buildDataGit) throws Exception {
+            this.root = cwd;
+            this.isolated = false;
+            this.bukkitGit = bukkitGit;
+            this.craftBukkitGit = craftBukkitGit;
+            this.spigotGit = spigotGit;
+            this.buildDataGit = buildDataGit;
+            this.craftBukkitRef = buildInfo.getRefs().getCraftBukkit();
+
+            if (!cfg.skipUpdate) {
+                Utils.runTasksMultiThreaded(
+                        () -> gitCheckout(buildDataGit, buildInfo.getRefs().getBuildData()),
+                        () -> gitCheckout(bukkitGit, buildInfo.getRefs().getBukkit()),
+                        () -> gitCheckout(craftBukkitGit, buildInfo.getRefs().getCraftBukkit()),
+                        () -> gitCheckout(spigotGit, buildInfo.getRefs().getSpigot())
+                );
             }
+        }
 
-            VersionInfo versionInfo = new Gson().fromJson(
-                    FileUtils.readFileToString(new File("BuildData/info.json"), StandardCharsets.UTF_8),
-                    VersionInfo.class
+        /**
+         * Builds this revision inside its own checkouts below {@code work/worktrees/}, that share the object database
+         * with the repositories in the working directory
+         * <p>
+         * The refs are resolved to commits inside the shared repositories, so the isolated checkouts never need to be fetched.
+         */
+        private void checkoutIsolated(@NotNull Git bukkitGit, @NotNull Git craftBukkitGit, @NotNull Git spigotGit, @NotNull Git buildDataGit) throws Exception {
+            this.root = new File(workDir, "worktrees" + File.separator + getDirectoryName(rev));
+            this.isolated = true;
+
+            String bukkitCommit = resolveCommit(bukkitGit, buildInfo.getRefs().getBukkit());
+            String craftBukkitCommit = resolveCommit(craftBukkitGit, buildInfo.getRefs().getCraftBukkit());
+            String spigotCommit = resolveCommit(spigotGit, buildInfo.getRefs().getSpigot());
+            String buildDataCommit = resolveCommit(buildDataGit, buildInfo.getRefs().getBuildData());
+
+            this.craftBukkitRef = craftBukkitCommit;
+
+            Utils.runTasksMultiThreaded(
+                    () -> {
+                        this.buildDataGit = openIsolatedCheckout(buildDataGit, new File(root, GitRepository.BUILD_DATA.repoName), buildDataCommit);
+                        return 0;
+                    },
+                    () -> {
+                        this.bukkitGit = openIsolatedCheckout(bukkitGit, new File(root, GitRepository.BUKKIT.repoName), bukkitCommit);
+                        return 0;
+                    },
+                    () -> {
+                        this.craftBukkitGit = openIsolatedCheckout(craftBukkitGit, new File(root, GitRepository.CRAFT_BUKKIT.repoName), craftBukkitCommit);
+                        return 0;
+                    },
+                    () -> {
+                        this.spigotGit = openIsolatedCheckout(spigotGit, new File(root, GitRepository.SPIGOT.repoName), spigotCommit);
+                        return 0;
+                    }
             );
-            // Default to 1.8 builds.
-            if (versionInfo == null) {
-                versionInfo = new VersionInfo("1.8", "bukkit-1.8.at",
-                        "bukkit-1.8-cl.csrg", "bukkit-1.8-members.csrg",
-                        "package.srg", null);
+        }
+
+        /**
+         * Closes the repositories of an isolated checkout
+         */
+        private void close() {
+            if (isolated) {
+                for (Git git : new Git[] {bukkitGit, craftBukkitGit, spigotGit, buildDataGit}) {
+                    if (git != null) {
+                        git.close();
+                    }
+                }
+            }
+        }
+
+        private void build(int stageCpus, int stageMemoryMb) throws Exception {
+            int cores = Runtime.getRuntime().availableProcessors();
+            BuildPipeline pipeline = new BuildPipeline(stageCpus, stageMemoryMb, report);
+
+            pipeline.addStage("read-version-info", 1, 0, this::readVersionInfo);
+            pipeline.addStage("download-vanilla-jar", 1, 0, this::downloadVanillaJar, "read-version-info");
+            pipeline.addStage("compute-mapping-keys", 1, 0, this::computeMappingKeys, "download-vanilla-jar");
+            pipeline.addStage("remap-classes", 1, TOOL_MEMORY_MB, this::remapClasses, "compute-mapping-keys");
+            pipeline.addStage("remap-members", 1, TOOL_MEMORY_MB, this::remapMembers, "remap-classes");
+            pipeline.addStage("remap-final", 1, TOOL_MEMORY_MB, this::remapFinal, "remap-members");
+            pipeline.addStage("install-mapped-jar", 1, MAVEN_MEMORY_MB, this::installMappedJar, "remap-final");
+            pipeline.addStage("extract-classes", cores, 0, this::extractClasses, "remap-final");
+            decompileShards = cfg.decompileShards > 0 ? cfg.decompileShards : getDefaultDecompileShards(stageCpus, stageMemoryMb);
+            pipeline.addStage("decompile", decompileShards, decompileShards * TOOL_MEMORY_MB, this::decompile, "extract-classes");
+            patchThreads = Math.max(1, Math.min(cores, stageCpus));
+            pipeline.addStage("apply-craftbukkit-patches", patchThreads, 0, this::applyCraftBukkitPatches, "decompile");
+            pipeline.addStage("commit-craftbukkit-patches", 1, 0, this::commitCraftBukkitPatches, "apply-craftbukkit-patches");
+            pipeline.addStage("prepare-spigot-repositories", 1, 0, this::prepareSpigotRepositories, "commit-craftbukkit-patches");
+
+            List<String> finalStages = new ArrayList<>();
+
+            if (cfg.toCompile.contains(Compile.CRAFTBUKKIT)) {
+                // Bukkit does not depend on anything but its own repository
+                pipeline.addStage("compile-bukkit", 2, MAVEN_MEMORY_MB, this::compileBukkit);
+                pipeline.addStage("compile-craftbukkit", 2, MAVEN_MEMORY_MB, this::compileCraftBukkit,
+                        "compile-bukkit", "commit-craftbukkit-patches", "install-mapped-jar");
+
+                finalStages.add("compile-craftbukkit");
             }
+
+            pipeline.addStage("apply-spigot-patches", 1, 0, this::applySpigotPatches, "prepare-spigot-repositories");
+            finalStages.add("apply-spigot-patches");
+
+            if (cfg.toCompile.contains(Compile.SPIGOT)) {
+                pipeline.addStage("compile-spigot", 2, MAVEN_MEMORY_MB, this::compileSpigot, "apply-spigot-patches", "install-mapped-jar");
+                finalStages.add("compile-spigot");
+            }
+
+            pipeline.addStage("copy-jars", 1, 0, this::copyJars, finalStages.toArray(new String[0]));
+
+            pipeline.run();
+        }
+
+        private void readVersionInfo() throws IOException, BuilderException {
+            versionInfo = parseVersionInfo(FileUtils.readFileToString(new File(root, "BuildData/info.json"), StandardCharsets.UTF_8));
             System.out.println("Attempting to build Minecraft with details: " + versionInfo);
 
             if (Bootstrap.ORIGINAL_BUILD_NUMBER != -1 &&
@@ -176,149 +576,246 @@ public class Builder {
                     Bootstrap.ORIGINAL_BUILD_NUMBER < versionInfo.getToolsVersion()) {
                 throw new BuilderException("**** Your BuildTools is out of date and will not build the requested version. Please grab a new copy from https://github.com/SpraxDev/Spigot-BuildTools/releases/latest");
             }
+        }
 
-            File vanillaJar = new File(workDir, "minecraft_server." + versionInfo.getMinecraftVersion() + ".jar");
-            if (!vanillaJar.exists() || !checkHash(vanillaJar, versionInfo, cfg.isDevMode)) {
-                if (versionInfo.getServerUrl() != null) {
-                    Utils.downloadFile(versionInfo.getServerUrl(), vanillaJar, HashAlgo.MD5, versionInfo.getMinecraftHash());
-                } else {
-                    Utils.downloadFile(String.format("https://s3.amazonaws.com/Minecraft.Download/versions/%1$s/minecraft_server.%1$s.jar",
-                            versionInfo.getMinecraftVersion()), vanillaJar, HashAlgo.MD5, versionInfo.getMinecraftHash());
+        private void downloadVanillaJar() throws IOException, BuilderException {
+            vanillaJar = new File(workDir, "minecraft_server." + versionInfo.getMinecraftVersion() + ".jar");
+
+            // Revisions built in parallel may need the same jar
+            synchronized (getFileLock(vanillaJar)) {
+                if (!vanillaJar.exists() || !checkHash(vanillaJar, versionInfo, cfg.isDevMode)) {
+                    if (cfg.offline) {
+                        throw new BuilderException("The Minecraft server jar '" + vanillaJar + "' is missing and can't be downloaded in offline mode");
+                    }
+
+                    // Mirrors use the path of the old S3 bucket, newer versions have their own upstream URL
+                    sources.fetch(ArtifactSources.Type.MINECRAFT_SERVER,
+                            String.format("%1$s/minecraft_server.%1$s.jar", versionInfo.getMinecraftVersion()), versionInfo.getServerUrl(), url -> {
+                                Utils.downloadFile(url, vanillaJar, HashAlgo.MD5, versionInfo.getMinecraftHash());
+                                return null;
+                            });
                 }
             }
+        }
 
-            Iterable<RevCommit> mappings = buildDataGit.log()
-                    .addPath("mappings/")
-                    .setMaxCount(1).call();
-
-            HashAlgo mappingsHash = HashAlgo.MD5;
-            for (RevCommit rev : mappings) {
-                mappingsHash.update(rev.getName().getBytes(StandardCharsets.UTF_8));
-            }
-            String mappingsVersion = mappingsHash.getHash().substring(24); // Last 8 chars
-
-            File finalMappedJar = new File(workDir, "mapped." + mappingsVersion + ".jar");
-            if (!finalMappedJar.exists()) {
-                System.out.println("Final mapped jar '" + finalMappedJar + "' does not exist, creating (please wait)!");
-
-                File clMappedJar = new File(finalMappedJar + "-cl");
-                File mMappedJar = new File(finalMappedJar + "-m");
-
-                // This cannot be run in parallel because they rely on each other, but
-                // I'm keeping this for better readability - notice the threadCount = 1
-                VersionInfo finalVersionInfo = versionInfo;
-                Utils.runTasksMultiThreaded(1, () -> {
-                            String[] args = finalVersionInfo.getClassMapCommand().split(" ");
-                            for (int i = 0; i < args.length; ++i) {
-                                switch (args[i]) {
-                                    case "{0}":
-                                        args[i] = cwd.toPath().relativize(vanillaJar.toPath()).toString();
-                                        break;
-                                    case "{1}":
-                                        args[i] = "BuildData/mappings/" + finalVersionInfo.getClassMappings();
-                                        break;
-                                    case "{2}":
-                                        args[i] = cwd.toPath().relativize(clMappedJar.toPath()).toString();
-                                        break;
-                                    default:
-                                        break;
-                                }
-                            }
+        private void computeMappingKeys() throws IOException {
+            // Every remapping step is cached using a key over all of its inputs, so changing e.g. only
+            // the member mappings does not require running the class mapping again
+            classMapKey = getRemapKey("class-map", hashCache.getHash(vanillaJar, HashAlgo.SHA256),
+                    versionInfo.getClassMapCommand(), versionInfo.getClassMappings());
+            memberMapKey = getRemapKey("member-map", classMapKey,
+                    versionInfo.getMemberMapCommand(), versionInfo.getMemberMappings());
+            finalMapKey = getRemapKey("final-map", memberMapKey,
+                    versionInfo.getFinalMapCommand(), versionInfo.getAccessTransforms(), versionInfo.getPackageMappings());
 
-                            String cmd = args[0];
-                            args[0] = null;
+            String mappingsVersion = finalMapKey.substring(finalMapKey.length() - 8); // Last 8 chars
 
-                            Utils.runCommand(cwd, cmd.equalsIgnoreCase("java") ? javaCmd : cmd, args);
+            finalMappedJar = artifactStore.getFile("mapped", finalMapKey, ".jar");
+            decompileDir = new File(workDir, "decompile-" + mappingsVersion);
+        }
 
-                            return 0;
-                        },
-                        () -> {
-                            String[] args = finalVersionInfo.getMemberMapCommand().split(" ");
-                            for (int i = 0; i < args.length; ++i) {
-                                switch (args[i]) {
-                                    case "{0}":
-                                        args[i] = cwd.toPath().relativize(clMappedJar.toPath()).toString();
-                                        break;
-                                    case "{1}":
-                                        args[i] = "BuildData/mappings/" + finalVersionInfo.getMemberMappings();
-                                        break;
-                                    case "{2}":
-                                        args[i] = cwd.toPath().relativize(mMappedJar.toPath()).toString();
-                                        break;
-                                    default:
-                                        break;
-                                }
-                            }
+        private void remapClasses() throws Exception {
+            // Not needed, if one of the later steps is already cached
+            if (finalMappedJar.isFile() || artifactStore.getFile("mapped-m", memberMapKey, ".jar").isFile()) {
+                return;
+            }
 
-                            String cmd = args[0];
-                            args[0] = null;
+            artifactStore.getOrCreate("mapped-cl", classMapKey, ".jar", clOut ->
+                    runTemplateCommand(versionInfo.getClassMapCommand(),
+                            getRelativePath(vanillaJar),
+                            "BuildData/mappings/" + versionInfo.getClassMappings(),
+                            getRelativePath(clOut)));
+        }
 
-                            Utils.runCommand(cwd, cmd.equalsIgnoreCase("java") ? javaCmd : cmd, args);
+        private void remapMembers() throws Exception {
+            if (finalMappedJar.isFile()) {
+                return;
+            }
 
-                            return 0;
-                        },
-                        () -> {
-                            String[] args = finalVersionInfo.getFinalMapCommand().split(" ");
-                            for (int i = 0; i < args.length; ++i) {
-                                switch (args[i]) {
-                                    case "{0}":
-                                        args[i] = cwd.toPath().relativize(mMappedJar.toPath()).toString();
-                                        break;
-                                    case "{1}":
-                                        args[i] = "BuildData/mappings/" + finalVersionInfo.getAccessTransforms();
-                                        break;
-                                    case "{2}":
-                                        args[i] = "BuildData/mappings/" + finalVersionInfo.getPackageMappings();
-                                        break;
-                                    case "{3}":
-                                        args[i] = cwd.toPath().relativize(finalMappedJar.toPath()).toString();
-                                        break;
-                                    default:
-                                        break;
-                                }
-                            }
+            File clMappedJar = artifactStore.getFile("mapped-cl", classMapKey, ".jar");
+            artifactStore.getOrCreate("mapped-m", memberMapKey, ".jar", mOut ->
+                    runTemplateCommand(versionInfo.getMemberMapCommand(),
+                            getRelativePath(clMappedJar),
+                            "BuildData/mappings/" + versionInfo.getMemberMappings(),
+                            getRelativePath(mOut)));
+        }
 
-                            String cmd = args[0];
-                            args[0] = null;
+        private void remapFinal() throws Exception {
+            File mMappedJar = artifactStore.getFile("mapped-m", memberMapKey, ".jar");
 
-                            Utils.runCommand(cwd, cmd.equalsIgnoreCase("java") ? javaCmd : cmd, args);
+            artifactStore.getOrCreate("mapped", finalMapKey, ".jar", finalOut -> {
+                System.out.println("Final mapped jar does not exist for key '" + finalMapKey + "', creating (please wait)!");
 
-                            return 0;
-                        });
-            }
+                runTemplateCommand(versionInfo.getFinalMapCommand(),
+                        getRelativePath(mMappedJar),
+                        "BuildData/mappings/" + versionInfo.getAccessTransforms(),
+                        "BuildData/mappings/" + versionInfo.getPackageMappings(),
+                        getRelativePath(finalOut));
+            });
+        }
 
-            Utils.runCommand(cwd, mvnCmd, "-B", "-Dbt.name=" + buildInfo.getName(), "install:install-file",
+        private void installMappedJar() throws IOException {
+            runMaven(root, "install:install-file",
                     "-Dfile=" + finalMappedJar, "-Dpackaging=jar", "-DgroupId=org.spigotmc",
                     "-DartifactId=minecraft-server", "-Dversion=" + versionInfo.getMinecraftVersion() + "-SNAPSHOT");
+        }
 
-            File decompileDir = new File(workDir, "decompile-" + mappingsVersion);
-            if (!decompileDir.exists()) {
-                Files.createDirectories(decompileDir.toPath());
+        /**
+         * Extracts the classes that need to be decompiled, split into shards that are decompiled at the same time
+         * <p>
+         * Unless {@code --full-decompile} has been used, only the classes the patches need are decompiled (see {@link #getNeededSources()}).
+         * Those sources are added to the decompile directory, which is marked using {@value #SELECTIVE_DECOMPILE_MARKER}
+         * until all classes have been decompiled.
+         */
+        private void extractClasses() throws IOException {
+            // Only fernflower is known to accept the mapped jar as library (-e=), which is needed
+            // to decompile a part of the classes. Other decompilers always get all of them in a single shard.
+            boolean supportsLibraries = versionInfo.getDecompileCommand().contains("fernflower");
+            selectiveDecompile = !cfg.fullDecompile && supportsLibraries;
+
+            Map<String, List<ZipEntry>> classesBySource;
+            if (selectiveDecompile) {
+                classesBySource = getClassesBySource(getNeededSources());
+                needsDecompile = !classesBySource.isEmpty();
+            } else {
+                needsDecompile = !decompileDir.exists() || new File(decompileDir, SELECTIVE_DECOMPILE_MARKER).exists();
+                classesBySource = needsDecompile ? getClassesBySource(null) : Collections.emptyMap();
+            }
+
+            BuildReport.addCacheLookup(!needsDecompile);
+
+            if (needsDecompile) {
+                // Decompiling into a temporary directory makes sure an aborted run does not leave incomplete sources behind
+                decompileTmpDir = new File(workDir, decompileDir.getName() + ".tmp-" + getDirectoryName(rev));
+                FileUtils.deleteDirectory(decompileTmpDir);
+                Files.createDirectories(decompileTmpDir.toPath());
 
-                File clazzDir = new File(decompileDir, "classes");
-                Utils.extractZip(finalMappedJar, clazzDir, s -> s.startsWith("net/minecraft"));
+                int shardCount = supportsLibraries ? Math.max(1, Math.min(decompileShards, classesBySource.size() / DECOMPILE_MIN_SOURCES_PER_SHARD)) : 1;
+                List<Set<String>> shards = splitIntoShards(classesBySource, shardCount);
 
-                if (versionInfo.getDecompileCommand() == null) {
-                    versionInfo.setDecompileCommand("java -jar BuildData/bin/fernflower.jar -dgs=1 -hdc=0 -rbr=0 -asc=1 -udv=0 {0} {1}");
+                decompileSourceCount = classesBySource.size();
+                decompileShardDirs = new ArrayList<>(shardCount);
+
+                Map<String, File> shardDirByEntry = new HashMap<>();
+                for (int i = 0; i < shardCount; ++i) {
+                    File shardDir = new File(decompileTmpDir, shardCount == 1 ? "classes" : "classes-" + i);
+                    Files.createDirectories(shardDir.toPath());
+
+                    for (String entryName : shards.get(i)) {
+                        shardDirByEntry.put(entryName, shardDir);
+                    }
+                    decompileShardDirs.add(shardDir);
                 }
 
-                String[] args = versionInfo.getDecompileCommand().split(" ");
-                for (int i = 0; i < args.length; ++i) {
-                    switch (args[i]) {
-                        case "{0}":
-                            args[i] = cwd.toPath().relativize(clazzDir.toPath()).toString();
-                            break;
-                        case "{1}":
-                            args[i] = cwd.toPath().relativize(decompileDir.toPath()).toString();
-                            break;
-                        default:
-                            break;
+                // All shards are extracted in a single pass over the jar
+                Utils.extractZip(finalMappedJar, shardDirByEntry::get);
+            }
+        }
+
+        /**
+         * @return The sources the CraftBukkit patches and Spigot's patches for CraftBukkit apply to (relative to the source root)
+         */
+        @NotNull
+        private Set<String> getNeededSources() throws IOException {
+            Set<String> result = new HashSet<>();
+
+            File[] nmsPatches = new File(craftBukkitGit.getRepository().getDirectory().getParentFile(), "nms-patches")
+                    .listFiles((dir, name) -> name.endsWith(".patch"));
+            for (File patchFile : nmsPatches != null ? nmsPatches : new File[0]) {
+                result.add(NmsPatcher.getTargetFile(patchFile));
+            }
+
+            File[] spigotPatches = new File(spigotGit.getRepository().getDirectory().getParentFile(), "CraftBukkit-Patches")
+                    .listFiles((dir, name) -> name.endsWith(".patch"));
+            for (File patchFile : spigotPatches != null ? spigotPatches : new File[0]) {
+                // Only the file names are of interest, which are ASCII (the content does not have to be valid UTF-8)
+                for (String line : Files.readAllLines(patchFile.toPath(), StandardCharsets.ISO_8859_1)) {
+                    Matcher matcher = SPIGOT_PATCH_NMS_FILE_PATTERN.matcher(line);
+
+                    if (matcher.find()) {
+                        result.add(matcher.group(1));
                     }
                 }
+            }
+
+            return result;
+        }
+
+        /**
+         * @param neededSources The sources that are needed (relative to the source root) or {@code null} to get all of them
+         *
+         * @return The entries of the mapped jar (including inner classes) grouped by their source file, for all the needed sources
+         * that have not been decompiled yet
+         */
+        @NotNull
+        private Map<String, List<ZipEntry>> getClassesBySource(@Nullable Set<String> neededSources) throws IOException {
+            Map<String, List<ZipEntry>> result = new TreeMap<>();
+
+            try (ZipFile jar = new ZipFile(finalMappedJar)) {
+                for (Enumeration<? extends ZipEntry> entries = jar.entries(); entries.hasMoreElements(); ) {
+                    ZipEntry entry = entries.nextElement();
+                    String name = entry.getName();
+
+                    if (!name.startsWith("net/minecraft/") || !name.endsWith(".class")) {
+                        continue;
+                    }
+
+                    String outerClass = name.substring(0, name.length() - ".class".length());
+                    int innerClassStart = outerClass.indexOf('$', outerClass.lastIndexOf('/') + 1);
+                    String source = (innerClassStart >= 0 ? outerClass.substring(0, innerClassStart) : outerClass) + ".java";
 
-                String cmd = args[0];
-                args[0] = null;
-                Utils.runCommand(cwd, cmd.equalsIgnoreCase("java") ? javaCmd : cmd, args);
+                    if (neededSources == null || (neededSources.contains(source) && !new File(decompileDir, source).isFile())) {
+                        result.computeIfAbsent(source, k -> new ArrayList<>()).add(entry);
+                    }
+                }
+            }
+
+            return result;
+        }
+
+        @SuppressWarnings("try")
+        private void decompile() throws Exception {
+            if (needsDecompile) {
+                String command = versionInfo.getDecompileCommand();
+                String outputDir = getRelativePath(decompileTmpDir);
+
+                // Every shard only contains a part of the classes, the whole jar is needed to resolve the types they use
+                List<String> libraryArgs = selectiveDecompile || decompileShardDirs.size() > 1 ?
+                        Collections.singletonList("-e=" + finalMappedJar.getAbsolutePath()) : Collections.emptyList();
+
+                System.out.println("Decompiling " + (selectiveDecompile ? "the " + decompileSourceCount + " sources needed by the patches" : decompileSourceCount + " sources") +
+                        (decompileShardDirs.size() > 1 ? " in " + decompileShardDirs.size() + " shards" : "") +
+                        (selectiveDecompile ? " (use --full-decompile to decompile all of them)" : ""));
+
+                if (decompileShardDirs.size() == 1) {
+                    runTemplateCommand(command, libraryArgs, true, getRelativePath(decompileShardDirs.get(0)), outputDir);
+                } else {
+                    List<Utils.MultiThreadedTask> tasks = new ArrayList<>();
+
+                    for (File shardDir : decompileShardDirs) {
+                        tasks.add(() -> {
+                            try (TaskOutput.Channel ignored = TaskOutput.openChannel(shardDir.getName())) {
+                                // In-process runs of the same tool wait for each other
+                                runTemplateCommand(command, libraryArgs, false, getRelativePath(shardDir), outputDir);
+                            }
+
+                            return 0;
+                        });
+                    }
+
+                    Utils.runTasksMultiThreaded(tasks.size(), tasks.toArray(new Utils.MultiThreadedTask[0]));
+                }
+
+                synchronized (getFileLock(decompileDir)) {
+                    if (selectiveDecompile) {
+                        mergeDecompiledSources();
+                    } else if (decompileDir.exists() && !new File(decompileDir, SELECTIVE_DECOMPILE_MARKER).exists()) {
+                        FileUtils.deleteDirectory(decompileTmpDir);     // Another revision has been faster
+                    } else {
+                        FileUtils.deleteDirectory(decompileDir);        // Only contains some of the sources
+                        Files.move(decompileTmpDir.toPath(), decompileDir.toPath());
+                    }
+                }
             }
 
             try {
@@ -332,71 +829,124 @@ public class Builder {
             } catch (IOException ex) {
                 System.out.println("Did not create decompile-latest link " + ex.getMessage());
             }
+        }
 
-            System.out.println("Applying CraftBukkit Patches");
+        /**
+         * Moves the sources decompiled by a selective decompile into the decompile directory, keeping the ones that already exist
+         */
+        private void mergeDecompiledSources() throws IOException {
+            Path tmpPath = decompileTmpDir.toPath();
 
-            File nmsDir = Paths.get(craftBukkitGit.getRepository().getDirectory().getParentFile().getPath(), "src", "main", "java", "net").toFile();
-            if (nmsDir.exists()) {
-                System.out.println("Backing up NMS dir");
-                FileUtils.moveDirectory(nmsDir, new File(workDir, "nms.old." + System.currentTimeMillis()));
+            if (!decompileDir.exists()) {
+                Files.createDirectories(decompileDir.toPath());
+                Files.createFile(new File(decompileDir, SELECTIVE_DECOMPILE_MARKER).toPath());
             }
-            File patchDir = new File(craftBukkitGit.getRepository().getDirectory().getParentFile(), "nms-patches");
-            for (File file : Objects.requireNonNull(patchDir.listFiles())) {
-                if (!file.getName().endsWith(".patch")) {
-                    continue;
+
+            List<Path> sources;
+            try (Stream<Path> stream = Files.walk(tmpPath)) {
+                // Skips the extracted classes of every shard
+                sources = stream.filter(path -> !tmpPath.relativize(path).getName(0).toString().startsWith("classes") && Files.isRegularFile(path))
+                        .collect(Collectors.toList());
+            }
+
+            for (Path source : sources) {
+                Path target = decompileDir.toPath().resolve(tmpPath.relativize(source));
+
+                if (!Files.exists(target)) {
+                    Files.createDirectories(target.getParent());
+                    Files.move(source, target);
                 }
+            }
 
-                String targetFile = "net/minecraft/server/" + file.getName().replace(".patch", ".java");
+            FileUtils.deleteDirectory(decompileTmpDir);
+        }
 
-                File clean = new File(decompileDir, targetFile);
-                File t = new File(nmsDir.getParentFile(), targetFile);
-                Files.createDirectories(t.getParentFile().toPath());
+        private void applyCraftBukkitPatches() throws IOException, BuilderException {
+            System.out.println("Applying CraftBukkit Patches");
 
-                System.out.println("Patching with " + file.getName());
+            File nmsDir = Paths.get(craftBukkitGit.getRepository().getDirectory().getParentFile().getPath(), "src", "main", "java", "net").toFile();
+            File patchDir = new File(craftBukkitGit.getRepository().getDirectory().getParentFile(), "nms-patches");
+            // The manifest and backups belong to the checkout that is patched
+            File stateDir = isolated ? root : workDir;
+            patchedNmsBlobs = new NmsPatcher(patchDir, decompileDir, nmsDir.getParentFile(), new File(stateDir, "nms-patches.json"),
+                    new File(stateDir, "nms.old." + System.currentTimeMillis()), craftBukkitGit.getRepository()).applyPatches(patchThreads);
+        }
 
-                List<String> readFile = FileUtils.readLines(file, StandardCharsets.UTF_8);
+        /**
+         * Creates the {@code patched} branch with a commit on top of the checked out one, that adds the patched files
+         * <p>
+         * The commit is built from the blobs created while patching, so neither the working tree nor the index are touched.
+         */
+        private void commitCraftBukkitPatches() throws IOException, BuilderException {
+            Repository repo = craftBukkitGit.getRepository();
+            ObjectId head = repo.resolve(Constants.HEAD);
+
+            if (head == null) {
+                throw new BuilderException("Could not resolve HEAD of '" + repo.getDirectory() + "'");
+            }
 
-                // Manually append a prelude if it is not found in the first few lines.
-                boolean preludeFound = false;
-                for (int i = 0; i < Math.min(3, readFile.size()); ++i) {
-                    if (readFile.get(i).startsWith("+++")) {
-                        preludeFound = true;
-                        break;
+            DirCache index = DirCache.newInCore();
+            DirCacheBuilder indexBuilder = index.builder();
+
+            try (ObjectInserter inserter = repo.newObjectInserter();
+                 RevWalk revWalk = new RevWalk(repo);
+                 TreeWalk treeWalk = new TreeWalk(repo)) {
+                treeWalk.addTree(revWalk.parseCommit(head).getTree());
+                treeWalk.setRecursive(true);
+
+                while (treeWalk.next()) {
+                    // Replaced by the patched file, just like 'git add src/main/java/net/' would
+                    String path = treeWalk.getPathString();
+                    if (path.startsWith(PATCHED_SOURCES_PATH) && patchedNmsBlobs.containsKey(path.substring(PATCHED_SOURCES_PATH.length()))) {
+                        continue;
                     }
+
+                    DirCacheEntry entry = new DirCacheEntry(treeWalk.getRawPath());
+                    entry.setFileMode(treeWalk.getFileMode(0));
+                    entry.setObjectId(treeWalk.getObjectId(0));
+                    indexBuilder.add(entry);
                 }
-                if (!preludeFound) {
-                    readFile.add(0, "+++");
+
+                for (Map.Entry<String, ObjectId> blob : patchedNmsBlobs.entrySet()) {
+                    DirCacheEntry entry = new DirCacheEntry(PATCHED_SOURCES_PATH + blob.getKey());
+                    entry.setFileMode(FileMode.REGULAR_FILE);
+                    entry.setObjectId(blob.getValue());
+                    indexBuilder.add(entry);
                 }
 
-                Patch parsedPatch = DiffUtils.parseUnifiedDiff(readFile);
-                List<?> modifiedLines = DiffUtils.patch(FileUtils.readLines(clean, StandardCharsets.UTF_8), parsedPatch);
+                indexBuilder.finish();
 
-                try (BufferedWriter bw = new BufferedWriter(new FileWriter(t))) {
-                    for (Object line : modifiedLines) {
-                        bw.write((String) line);
-                        bw.newLine();
-                    }
-                }
-            }
+                PersonIdent ident = new PersonIdent(repo);
+                CommitBuilder commit = new CommitBuilder();
+                commit.setTreeId(index.writeTree(inserter));
+                commit.setParentId(head);
+                commit.setAuthor(ident);
+                commit.setCommitter(ident);
+                commit.setMessage("CraftBukkit $ " + new Date());
 
-            File tmpNms = new File(craftBukkitGit.getRepository().getDirectory().getParentFile(), "tmp-nms");
-            FileUtils.copyDirectory(nmsDir, tmpNms);
+                ObjectId commitId = inserter.insert(commit);
+                inserter.flush();
 
-            craftBukkitGit.branchDelete().setBranchNames("patched").setForce(true).call();
-            craftBukkitGit.checkout().setCreateBranch(true).setForceRefUpdate(true).setName("patched").call();
-            craftBukkitGit.add().addFilepattern("src/main/java/net/").call();
-            craftBukkitGit.commit().setSign(false).setMessage("CraftBukkit $ " + new Date()).call();
-            craftBukkitGit.checkout().setName(buildInfo.getRefs().getCraftBukkit()).call();
+                RefUpdate refUpdate = repo.updateRef(Constants.R_HEADS + "patched");
+                refUpdate.setNewObjectId(commitId);
+                refUpdate.setForceUpdate(true);
+                refUpdate.setRefLogMessage("commit: CraftBukkit patches", false);
 
-            FileUtils.moveDirectory(tmpNms, nmsDir);
+                RefUpdate.Result result = refUpdate.update(revWalk);
+                if (result != RefUpdate.Result.NEW && result != RefUpdate.Result.FORCED && result != RefUpdate.Result.NO_CHANGE) {
+                    throw new BuilderException("Could not update the 'patched' branch of '" + repo.getDirectory() + "' (" + result + ")");
+                }
+            }
+        }
 
+        private void prepareSpigotRepositories() throws Exception {
             if (versionInfo.getToolsVersion() < 93) {
                 Utils.runTasksMultiThreaded(
                         () -> {
                             File spigotApi = new File(spigotGit.getRepository().getDirectory().getParentFile(), "Bukkit");
 
                             if (!spigotApi.exists()) {
-                                Utils.gitClone("file://" + bukkitGit.getRepository().getDirectory().getParentFile().getAbsolutePath(), spigotApi, Bootstrap.AUTO_CRLF);
+                                cloneLocalRepository(bukkitGit, spigotApi);
                             }
 
                             return 0;
@@ -406,69 +956,317 @@ public class Builder {
                             File spigotServer = new File(spigotGit.getRepository().getDirectory().getParentFile(), "CraftBukkit");
 
                             if (!spigotServer.exists()) {
-                                Utils.gitClone("file://" + craftBukkitGit.getRepository().getDirectory().getParentFile().getAbsolutePath(), spigotServer, Bootstrap.AUTO_CRLF);
+                                cloneLocalRepository(craftBukkitGit, spigotServer);
                             }
 
                             return 0;
                         }
                 );
             }
+        }
 
-            if (cfg.toCompile.contains(Compile.CRAFTBUKKIT)) {
-                System.out.println("Compiling Bukkit");
-                if (cfg.isDevMode) {
-                    Utils.runCommand(bukkitGit.getRepository().getDirectory().getParentFile(), mvnCmd, "-B", "-Dbt.name=" + buildInfo.getName(), "-P", "development", "clean", "install");
-                } else {
-                    Utils.runCommand(bukkitGit.getRepository().getDirectory().getParentFile(), mvnCmd, "-B", "-Dbt.name=" + buildInfo.getName(), "clean", "install");
-                }
-                if (cfg.generateDoc) {
-                    Utils.runCommand(bukkitGit.getRepository().getDirectory().getParentFile(), mvnCmd, "-B", "-Dbt.name=" + buildInfo.getName(), "javadoc:jar");
-                }
-                if (cfg.generateSrc) {
-                    Utils.runCommand(bukkitGit.getRepository().getDirectory().getParentFile(), mvnCmd, "-B", "-Dbt.name=" + buildInfo.getName(), "source:jar");
-                }
+        private void compileBukkit() throws IOException {
+            System.out.println("Compiling Bukkit");
+            // Generating the javadoc and source jars in the same invocation saves us from bootstrapping Maven again
+            runMaven(bukkitGit.getRepository().getDirectory().getParentFile(), getMavenBuildGoals(
+                    cfg.generateDoc ? "javadoc:jar" : null,
+                    cfg.generateSrc ? "source:jar" : null));
+        }
 
-                System.out.println("Compiling CraftBukkit");
-                if (cfg.isDevMode) {
-                    Utils.runCommand(craftBukkitGit.getRepository().getDirectory().getParentFile(), mvnCmd, "-B", "-Dbt.name=" + buildInfo.getName(), "-P", "development", "clean", "install");
-                } else {
-                    Utils.runCommand(craftBukkitGit.getRepository().getDirectory().getParentFile(), mvnCmd, "-B", "-Dbt.name=" + buildInfo.getName(), "clean", "install");
+        private void compileCraftBukkit() throws IOException {
+            System.out.println("Compiling CraftBukkit");
+            runMaven(craftBukkitGit.getRepository().getDirectory().getParentFile(), getMavenBuildGoals());
+        }
+
+        /**
+         * Applies the patches of Spigot-API and Spigot-Server at the same time using JGit
+         * <p>
+         * {@code applyPatches.sh} is only used if that fails or {@code --spigot-patch-script} has been used.
+         */
+        private void applySpigotPatches() throws BuilderException {
+            File spigotDir = spigotGit.getRepository().getDirectory().getParentFile();
+
+            if (!cfg.usePatchScript) {
+                try {
+                    Utils.runTasksMultiThreaded(
+                            () -> applySpigotPatches(bukkitGit, Constants.HEAD, new File(spigotDir, "Spigot-API"), new File(spigotDir, "Bukkit-Patches")),
+                            () -> applySpigotPatches(craftBukkitGit, Constants.R_HEADS + "patched", new File(spigotDir, "Spigot-Server"), new File(spigotDir, "CraftBukkit-Patches"))
+                    );
+
+                    System.out.println("*** Spigot patches applied!");
+                    return;
+                } catch (Exception ex) {
+                    System.err.println("*** Could not apply the Spigot patches (" + ex.getMessage() + "), falling back to applyPatches.sh");
                 }
             }
 
             try {
-                Utils.runCommand(spigotGit.getRepository().getDirectory().getParentFile(), bashCmd, "applyPatches.sh");
+                Utils.runCommand(spigotDir, getBashCmd(), "applyPatches.sh");
                 System.out.println("*** Spigot patches applied!");
+            } catch (Exception ex) {
+                throw new BuilderException(SPIGOT_ERROR_MESSAGE, ex);
+            }
 
-                if (cfg.toCompile.contains(Compile.SPIGOT)) {
-                    System.out.println("Compiling Spigot & Spigot-API");
-                    if (cfg.isDevMode) {
-                        Utils.runCommand(spigotGit.getRepository().getDirectory().getParentFile(), mvnCmd, "-B", "-Dbt.name=" + buildInfo.getName(), "-P", "development", "clean", "install");
-                    } else {
-                        Utils.runCommand(spigotGit.getRepository().getDirectory().getParentFile(), mvnCmd, "-B", "-Dbt.name=" + buildInfo.getName(), "clean", "install");
-                    }
+            // Lets the next run skip the patches, if nothing changed
+            try {
+                markSpigotPatchesApplied(bukkitGit, Constants.HEAD, new File(spigotDir, "Spigot-API"), new File(spigotDir, "Bukkit-Patches"));
+                markSpigotPatchesApplied(craftBukkitGit, Constants.R_HEADS + "patched", new File(spigotDir, "Spigot-Server"), new File(spigotDir, "CraftBukkit-Patches"));
+            } catch (Exception ex) {
+                System.err.println("Could not record the applied Spigot patches (" + ex.getMessage() + ")");
+            }
+        }
+
+        /**
+         * @param upstream    The repository that contains the commit to apply the patches to
+         * @param upstreamRef The ref of that commit
+         * @param targetDir   The repository to apply the patches to (cloned from {@code upstream} if it does not exist)
+         * @param patchDir    The directory containing the patches
+         */
+        @SuppressWarnings("try")
+        private int applySpigotPatches(@NotNull Git upstream, @NotNull String upstreamRef, @NotNull File targetDir, @NotNull File patchDir) throws Exception {
+            try (TaskOutput.Channel ignored = TaskOutput.openChannel(targetDir.getName())) {
+                if (!new File(targetDir, ".git").isDirectory()) {
+                    FileUtils.deleteDirectory(targetDir);
+                    cloneLocalRepository(upstream, targetDir);
                 }
+
+                try (Git target = Git.open(targetDir)) {
+                    ObjectId base = fetchLocalCommit(upstream, upstreamRef, target);
+                    new SpigotPatcher(target, patchDir).applyPatches(base);
+                }
+            }
+
+            return 0;
+        }
+
+        private void markSpigotPatchesApplied(@NotNull Git upstream, @NotNull String upstreamRef, @NotNull File targetDir, @NotNull File patchDir)
+                throws IOException, BuilderException {
+            try (Git target = Git.open(targetDir)) {
+                new SpigotPatcher(target, patchDir).markApplied(resolveLocalCommit(upstream, upstreamRef));
+            }
+        }
+
+        private void compileSpigot() throws BuilderException {
+            try {
+                System.out.println("Compiling Spigot & Spigot-API");
+                runMaven(spigotGit.getRepository().getDirectory().getParentFile(), getMavenBuildGoals());
             } catch (Exception ex) {
-                throw new BuilderException("Error compiling Spigot. Please check the wiki for FAQs.\n" +
-                        "If this does not resolve your issue then please pastebin the entire BuildTools.log.txt file when seeking support.", ex);
+                throw new BuilderException(SPIGOT_ERROR_MESSAGE, ex);
             }
+        }
 
+        private void copyJars() throws IOException {
             for (int i = 0; i < 36; ++i) {
                 System.out.println();
             }
 
             System.out.println("Success! Everything completed successfully.");
 
+            for (OutputJar outputJar : getOutputJars(versionInfo)) {
+                copyJar(outputJar.path, outputJar.jarPrefix, outputJar.file);
+            }
+        }
+
+        /**
+         * @return The jars that are copied into the output directory, once the given version has been built
+         */
+        @NotNull
+        private List<OutputJar> getOutputJars(@NotNull VersionInfo versionInfo) {
+            List<OutputJar> result = new ArrayList<>(2);
+
             if (!cfg.toCompile.contains(Compile.NONE)) {
                 if (cfg.toCompile.contains(Compile.CRAFTBUKKIT) && (versionInfo.getToolsVersion() < 101 || versionInfo.getToolsVersion() > 104)) {
-                    copyJar("CraftBukkit/target", "craftbukkit", new File(cfg.outputDir, "craftbukkit-" + versionInfo.getMinecraftVersion() + ".jar"));
+                    result.add(new OutputJar("CraftBukkit/target", "craftbukkit", new File(cfg.outputDir, "craftbukkit-" + versionInfo.getMinecraftVersion() + ".jar")));
                 }
 
                 if (cfg.toCompile.contains(Compile.SPIGOT)) {
-                    copyJar("Spigot/Spigot-Server/target", "spigot", new File(cfg.outputDir, "spigot-" + versionInfo.getMinecraftVersion() + ".jar"));
+                    result.add(new OutputJar("Spigot/Spigot-Server/target", "spigot", new File(cfg.outputDir, "spigot-" + versionInfo.getMinecraftVersion() + ".jar")));
                 }
             }
+
+            return result;
         }
+
+        /**
+         * Runs Maven inside the given directory, adding the arguments that are shared by every invocation
+         * (batch mode, the build name, offline mode and the configured thread count)
+         *
+         * @param workingDir The directory to run Maven in
+         * @param args       The goals and additional arguments
+         */
+        private void runMaven(@NotNull File workingDir, @NotNull String... args) throws IOException {
+            List<String> mvnArgs = new ArrayList<>();
+            mvnArgs.add("-B");
+            mvnArgs.add("-Dbt.name=" + buildInfo.getName());
+
+            if (cfg.offline) {
+                mvnArgs.add("-o");
+            }
+
+            if (cfg.mavenThreads != null) {
+                mvnArgs.add("-T");
+                mvnArgs.add(cfg.mavenThreads);
+            }
+
+            mvnArgs.addAll(Arrays.asList(args));
+
+            Utils.runCommand(workingDir, mvnCmd, mvnArgs.toArray(new String[0]));
+        }
+
+        /**
+         * Runs a command template from {@link VersionInfo} (e.g. {@link VersionInfo#getClassMapCommand()})
+         * after replacing the placeholders {@code {0}}, {@code {1}}, ... with the given values
+         *
+         * @param commandTemplate The command template, with arguments separated by spaces
+         * @param values          The values for the placeholders (paths relative to the root of the revision)
+         */
+        private void runTemplateCommand(@NotNull String commandTemplate, @NotNull String... values) throws IOException {
+            runTemplateCommand(commandTemplate, Collections.emptyList(), true, values);
+        }
+
+        /**
+         * @param extraArgs      Additional arguments, that are inserted in front of the first placeholder (paths have to be absolute)
+         * @param allowInProcess {@code false} if the command has to be run in a new process, even if {@code --run-tools-in-process} has been used
+         *
+         * @see #runTemplateCommand(String, String...)
+         */
+        private void runTemplateCommand(@NotNull String commandTemplate, @NotNull List<String> extraArgs, boolean allowInProcess,
+                                        @NotNull String... values) throws IOException {
+            Path rootPath = root.getAbsoluteFile().toPath();
+            List<String> argList = new ArrayList<>();
+            // Tools run in-process share the working directory of BuildTools instead of using root
+            List<String> inProcessArgList = new ArrayList<>();
+            boolean extraArgsAdded = false;
+
+            for (String arg : commandTemplate.split(" ")) {
+                String inProcessArg = arg.indexOf('/') > 0 && new File(root, arg).exists() ? rootPath.resolve(arg).toString() : arg;
+
+                for (int j = 0; j < values.length; ++j) {
+                    if (arg.equals("{" + j + "}")) {
+                        if (!extraArgsAdded) {
+                            argList.addAll(extraArgs);
+                            inProcessArgList.addAll(extraArgs);
+                            extraArgsAdded = true;
+                        }
+
+                        arg = values[j];
+                        inProcessArg = rootPath.resolve(values[j]).toString();
+                        break;
+                    }
+                }
+
+                argList.add(arg);
+                inProcessArgList.add(inProcessArg);
+            }
+
+            String[] args = argList.toArray(new String[0]);
+
+            if (allowInProcess && cfg.runToolsInProcess && InProcessJarRunner.run(root, inProcessArgList.toArray(new String[0]))) {
+                return;
+            }
+
+            String cmd = args[0];
+            args[0] = null;
+
+            Utils.runCommand(root, cmd.equalsIgnoreCase("java") ? javaCmd : cmd, args);
+        }
+
+        /**
+         * Computes the key for a remapping step, taking into account the key of the input jar, the command template,
+         * all files referenced by the command (e.g. the tool jar) and the content of the given mapping files
+         *
+         * @param step            The name of the remapping step
+         * @param inputKey        The key of the input jar
+         * @param commandTemplate The command template used for this step
+         * @param mappingFiles    The names of the mapping files inside {@code BuildData/mappings/}
+         *
+         * @return The key as SHA-256 hex string
+         */
+        @NotNull
+        private String getRemapKey(@NotNull String step, @NotNull String inputKey, @NotNull String commandTemplate,
+                                   @NotNull String... mappingFiles) throws IOException {
+            Hasher hasher = new Hasher(HashAlgo.SHA256)
+                    .update(step).update("\0")
+                    .update(inputKey).update("\0")
+                    .update(commandTemplate);
+
+            for (String arg : commandTemplate.split(" ")) {
+                File file = new File(root, arg);
+
+                if (!arg.isEmpty() && file.isFile()) {
+                    hasher.update("\0" + arg + "\0" + hashCache.getHash(file, HashAlgo.SHA256));
+                }
+            }
+
+            for (String mappingFile : mappingFiles) {
+                File file = new File(root, "BuildData/mappings/" + mappingFile);
+
+                hasher.update("\0" + mappingFile + "\0" + (file.isFile() ? hashCache.getHash(file, HashAlgo.SHA256) : "missing"));
+            }
+
+            return hasher.getHash(HashAlgo.SHA256);
+        }
+
+        @NotNull
+        private String getRelativePath(@NotNull File file) {
+            return root.toPath().relativize(file.getAbsoluteFile().toPath()).toString();
+        }
+
+        private void copyJar(@NotNull String path, @NotNull String jarPrefix, @NotNull File outJar) throws IOException {
+            File[] files = new File(root, path).listFiles((dir, name) -> name.startsWith(jarPrefix) && name.endsWith(".jar"));
+
+            Files.createDirectories(outJar.getParentFile().toPath());
+
+            for (File file : Objects.requireNonNull(files)) {
+                Files.copy(file.toPath(), outJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                BuildReport.addBytesRead(file.length());
+                BuildReport.addBytesWritten(outJar.length());
+
+                System.out.println(file.getName() + "\n  - Saved as " + outJar.getAbsolutePath());
+            }
+
+            if (fingerprint != null) {
+                fingerprint.writeManifest(outJar, hashCache);
+            } else {
+                // The jar no longer matches whatever the old manifest describes
+                Files.deleteIfExists(BuildFingerprint.getManifestFile(outJar).toPath());
+            }
+        }
+    }
+
+    private static class OutputJar {
+        private final String path;
+        private final String jarPrefix;
+        private final File file;
+
+        private OutputJar(@NotNull String path, @NotNull String jarPrefix, @NotNull File file) {
+            this.path = path;
+            this.jarPrefix = jarPrefix;
+            this.file = file;
+        }
+    }
+
+    /**
+     * Parses the {@code info.json} of BuildData, filling in the defaults for old versions
+     *
+     * @param json The content of the file or {@code null} if there is none
+     */
+    @NotNull
+    private static VersionInfo parseVersionInfo(@Nullable String json) {
+        VersionInfo versionInfo = json != null ? new Gson().fromJson(json, VersionInfo.class) : null;
+
+        // Default to 1.8 builds.
+        if (versionInfo == null) {
+            versionInfo = new VersionInfo("1.8", "bukkit-1.8.at",
+                    "bukkit-1.8-cl.csrg", "bukkit-1.8-members.csrg",
+                    "package.srg", null);
+        }
+
+        if (versionInfo.getDecompileCommand() == null) {
+            versionInfo.setDecompileCommand("java -jar BuildData/bin/fernflower.jar -dgs=1 -hdc=0 -rbr=0 -asc=1 -udv=0 {0} {1}");
+        }
+
+        return versionInfo;
     }
 
     private boolean prepareGitInstallation(File cwd) throws IOException {
@@ -484,6 +1282,11 @@ public class Builder {
 
                 File gitDir = Paths.get(cwd.getPath(), gitVersion, "PortableGit").toFile();
 
+                if (!gitDir.isDirectory() && cfg.offline) {
+                    System.err.println("*** PortableGit can't be downloaded in offline mode");
+                    return false;
+                }
+
                 if (!gitDir.isDirectory()) {
                     System.out.println("*** Downloading PortableGit ***");
 
@@ -492,8 +1295,10 @@ public class Builder {
                     File gitInstaller = new File(gitDir.getParentFile(), installerName);
                     gitInstaller.deleteOnExit();
 
-                    Utils.downloadFile("https://github.com/git-for-windows/git/releases/download/v2.30.0.windows.1/" + installerName,
-                            gitInstaller, HashAlgo.SHA256, gitHash);
+                    sources.fetch(ArtifactSources.Type.PORTABLE_GIT, installerName, null, url -> {
+                        Utils.downloadFile(url, gitInstaller, HashAlgo.SHA256, gitHash);
+                        return null;
+                    });
 
                     System.out.println("Extracting downloaded git installer");
                     // yes to all, silent, don't run. Only -y seems to work.
@@ -530,6 +1335,17 @@ public class Builder {
     }
 
     private boolean prepareMavenInstallation(File cwd) throws IOException {
+        if (cfg.useMavenDaemon) {
+            if (Utils.doesCommandFail(cwd, mvndCmd, "-B", "--version")) {
+                System.err.println("*** Could not run '" + mvndCmd + "', falling back to regular Maven");
+            } else {
+                mvnCmd = mvndCmd;
+                System.out.println("*** Using the Maven daemon ('" + mvndCmd + "') ***");
+
+                return true;
+            }
+        }
+
         if (Utils.doesCommandFail(cwd, mvnCmd, "-B", "--version")) {
             // https://www.apache.org/dist/maven/maven-3/3.6.0/binaries/apache-maven-3.6.0-bin.zip.sha512
             String mvnVersion = "apache-maven-3.6.0";
@@ -537,13 +1353,21 @@ public class Builder {
 
             File mvnDir = new File(cwd, mvnVersion);
 
+            if (!mvnDir.isDirectory() && cfg.offline) {
+                System.err.println("*** Maven3 can't be downloaded in offline mode");
+                return false;
+            }
+
             if (!mvnDir.isDirectory()) {
                 System.out.println("\n*** Downloading Maven3 ***");
 
                 File mvnZip = new File(mvnDir.getParentFile(), mvnVersion + "-bin.zip");
                 mvnZip.deleteOnExit();
 
-                Utils.downloadFile("https://static.spigotmc.org/maven/" + mvnZip.getName(), mvnZip, HashAlgo.SHA512, mvnHash);
+                sources.fetch(ArtifactSources.Type.MAVEN, mvnZip.getName(), null, url -> {
+                    Utils.downloadFile(url, mvnZip, HashAlgo.SHA512, mvnHash);
+                    return null;
+                });
 
                 System.out.println("Extracting downloaded maven archive");
                 Utils.extractZip(mvnZip, mvnDir.getParentFile(), null);
@@ -560,19 +1384,387 @@ public class Builder {
         return true;
     }
 
-    private void copyJar(@NotNull String path, @NotNull String jarPrefix, @NotNull File outJar) throws IOException {
-        File[] files = new File(cwd, path).listFiles((dir, name) -> name.startsWith(jarPrefix) && name.endsWith(".jar"));
+    /**
+     * @param additionalGoals Goals to run after {@code clean install} ({@code null} values are ignored)
+     *
+     * @return The arguments for a {@code clean install} (using the development profile in dev mode)
+     */
+    @NotNull
+    private String[] getMavenBuildGoals(@Nullable String... additionalGoals) {
+        List<String> goals = new ArrayList<>();
+
+        if (cfg.isDevMode) {
+            goals.add("-P");
+            goals.add("development");
+        }
 
-        Files.createDirectories(outJar.getParentFile().toPath());
+        goals.add("clean");
+        goals.add("install");
 
-        for (File file : Objects.requireNonNull(files)) {
-            Files.copy(file.toPath(), outJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            System.out.println(file.getName() + "\n  - Saved as " + outJar.getAbsolutePath());
+        for (String goal : additionalGoals) {
+            if (goal != null) {
+                goals.add(goal);
+            }
         }
+
+        return goals.toArray(new String[0]);
     }
 
-    private static boolean checkHash(File vanillaJar, VersionInfo versionInfo, boolean dev) throws IOException {
-        String hash = HashAlgo.MD5.getHash(FileUtils.readFileToByteArray(vanillaJar));
+    /**
+     * Creates an empty repository with {@code origin} pointing to the upstream repository,
+     * so {@link #fetchShallow(Git, GitRepository, List)} can fetch only the needed commits into it
+     */
+    private void initShallowRepository(@NotNull GitRepository repo, @NotNull File repoDir) throws IOException {
+        System.out.println("Initializing shallow git repository for '" + repo.gitUrl + "' in '" + repoDir + "'");
+
+        Files.createDirectories(repoDir.toPath());
+
+        Utils.runCommand(repoDir, gitCmd, "init", "--quiet");
+        Utils.runCommand(repoDir, gitCmd, "config", "core.autocrlf", String.valueOf(Bootstrap.AUTO_CRLF));
+        Utils.runCommand(repoDir, gitCmd, "remote", "add", "origin", repo.gitUrl);
+    }
+
+    /**
+     * Fetches the commits needed by the given revisions with a depth of 1
+     * <p>
+     * Branches (e.g. {@code master}) are fetched into their remote-tracking ref.
+     * Commits are fetched into {@code refs/buildtools/commits/}, so they are not garbage collected.
+     * If the server does not allow fetching a commit directly, the branches are fetched and deepened until the commit is found.
+     * <p>
+     * Repositories that already contain the full history (e.g. cloned without {@code --shallow} before) are fetched without a depth.
+     *
+     * @return {@code true} if anything has been fetched
+     */
+    @SuppressWarnings("try")
+    private boolean fetchShallow(@NotNull Git repo, @NotNull GitRepository gitRepository, @NotNull List<RevisionBuild> revisions) throws IOException {
+        boolean isShallow = new File(repo.getRepository().getDirectory(), "shallow").isFile() || repo.getRepository().resolve("HEAD") == null;
+
+        Set<String> refs = new LinkedHashSet<>();
+        for (RevisionBuild revision : revisions) {
+            refs.add(getRef(revision.buildInfo, gitRepository));
+        }
+
+        try (BuildReport.Phase ignored = report.startPhase("git-fetch-" + gitRepository.repoName)) {
+            return sources.fetch(ArtifactSources.Type.GIT, gitRepository.sourcePath, gitRepository.gitUrl, url -> {
+                setOriginUrl(repo, url);
+                return fetchShallowRefs(repo, gitRepository, refs, isShallow);
+            });
+        }
+    }
+
+    private boolean fetchShallowRefs(@NotNull Git repo, @NotNull GitRepository gitRepository, @NotNull Set<String> refs, boolean isShallow) throws IOException, BuilderException {
+        File repoDir = repo.getRepository().getDirectory().getParentFile();
+        String depthArg = isShallow ? "--depth=1" : null;
+
+        boolean fetched = false;
+
+        for (String ref : refs) {
+            if (!COMMIT_ID_PATTERN.matcher(ref).matches()) {
+                System.out.println("Fetching '" + ref + "' for '" + repoDir + "'");
+                Utils.runCommand(repoDir, gitCmd, "fetch", "--quiet", depthArg, "origin", "+refs/heads/" + ref + ":refs/remotes/origin/" + ref);
+
+                fetched = true;
+                continue;
+            }
+
+            if (repo.getRepository().resolve(ref + "^{commit}") != null) {
+                continue;   // Already there
+            }
+
+            System.out.println("Fetching commit '" + ref + "' for '" + repoDir + "'");
+            fetched = true;
+
+            if (!Utils.doesCommandFail(repoDir, gitCmd, "fetch", "--quiet", depthArg, "origin", "+" + ref + ":refs/buildtools/commits/" + ref)) {
+                continue;
+            }
+
+            System.out.println("*** Could not fetch commit '" + ref + "' directly, searching for it in the history of all branches");
+            Utils.runCommand(repoDir, gitCmd, "fetch", "--quiet", isShallow ? "--depth=" + SHALLOW_DEEPEN_STEP : null,
+                    "origin", "+refs/heads/*:refs/remotes/origin/*");
+
+            for (int depth = SHALLOW_DEEPEN_STEP; repo.getRepository().resolve(ref + "^{commit}") == null; depth *= 2) {
+                if (!isShallow || depth > SHALLOW_MAX_DEPTH) {
+                    if (isShallow) {
+                        Utils.runCommand(repoDir, gitCmd, "fetch", "--quiet", "--unshallow", "origin");
+                    }
+
+                    if (repo.getRepository().resolve(ref + "^{commit}") == null) {
+                        throw new BuilderException("Could not find commit '" + ref + "' in '" + repo.getRepository().getConfig().getString("remote", "origin", "url") + "'");
+                    }
+
+                    break;
+                }
+
+                Utils.runCommand(repoDir, gitCmd, "fetch", "--quiet", "--deepen=" + depth, "origin");
+            }
+
+            Utils.runCommand(repoDir, gitCmd, "update-ref", "refs/buildtools/commits/" + ref, ref);
+        }
+
+        return fetched;
+    }
+
+    /**
+     * Makes sure {@code target} contains the commit {@code ref} points to inside {@code source} (both are local repositories)
+     * <p>
+     * Like {@code applyPatches.sh}, the commit is fetched into {@code refs/remotes/origin/upstream}.
+     *
+     * @return The commit
+     */
+    @NotNull
+    private ObjectId fetchLocalCommit(@NotNull Git source, @NotNull String ref, @NotNull Git target) throws IOException, GitAPIException, BuilderException {
+        ObjectId commit = resolveLocalCommit(source, ref);
+
+        if (!target.getRepository().getObjectDatabase().has(commit)) {
+            String sourceUrl = "file://" + source.getRepository().getDirectory().getParentFile().getAbsolutePath();
+            String refSpec = "+" + ref + ":refs/remotes/origin/upstream";
+
+            // JGit is not able to fetch from shallow repositories
+            if (new File(source.getRepository().getDirectory(), "shallow").isFile()) {
+                Utils.runCommand(target.getRepository().getDirectory().getParentFile(), gitCmd, "fetch", "--quiet", sourceUrl, refSpec);
+            } else {
+                target.fetch().setRemote(sourceUrl).setRefSpecs(new RefSpec(refSpec)).call();
+            }
+        }
+
+        return commit;
+    }
+
+    /**
+     * @return The amount of decompiler processes that fit into the resources the build stages may use
+     */
+    private static int getDefaultDecompileShards(int stageCpus, int stageMemoryMb) {
+        return Math.max(1, Math.min(stageCpus, stageMemoryMb / TOOL_MEMORY_MB));
+    }
+
+    /**
+     * Splits the classes into shards of about the same size, keeping the classes of a source file (e.g. inner classes) together
+     *
+     * @param classesBySource The classes grouped by their source file
+     * @param shardCount      The amount of shards to create
+     *
+     * @return The names of the classes inside each shard
+     */
+    @NotNull
+    private static List<Set<String>> splitIntoShards(@NotNull Map<String, List<ZipEntry>> classesBySource, int shardCount) {
+        List<List<ZipEntry>> groups = new ArrayList<>(classesBySource.values());
+        groups.sort(Comparator.comparingLong((List<ZipEntry> group) -> group.stream().mapToLong(ZipEntry::getSize).sum()).reversed());
+
+        List<Set<String>> shards = new ArrayList<>(shardCount);
+        long[] shardSizes = new long[shardCount];
+
+        for (int i = 0; i < shardCount; ++i) {
+            shards.add(new HashSet<>());
+        }
+
+        // The largest groups first, always into the smallest shard
+        for (List<ZipEntry> group : groups) {
+            int smallestShard = 0;
+
+            for (int i = 1; i < shardCount; ++i) {
+                if (shardSizes[i] < shardSizes[smallestShard]) {
+                    smallestShard = i;
+                }
+            }
+
+            for (ZipEntry entry : group) {
+                shards.get(smallestShard).add(entry.getName());
+                shardSizes[smallestShard] += Math.max(0, entry.getSize());
+            }
+        }
+
+        return shards;
+    }
+
+    @NotNull
+    private static ObjectId resolveLocalCommit(@NotNull Git repo, @NotNull String ref) throws IOException, BuilderException {
+        ObjectId commit = repo.getRepository().resolve(ref + "^{commit}");
+
+        if (commit == null) {
+            throw new BuilderException("Could not find '" + ref + "' in '" + repo.getRepository().getDirectory().getParent() + "'");
+        }
+
+        return commit;
+    }
+
+    /**
+     * @return The bash executable, making sure it can be run the first time it is needed
+     */
+    @NotNull
+    private synchronized String getBashCmd() throws BuilderException {
+        if (!bashChecked) {
+            if (Utils.doesCommandFail(cwd, bashCmd, "-c", "exit")) {
+                throw new BuilderException("Could not run '" + bashCmd + "' - Please make sure it is available on your machine");
+            }
+
+            bashChecked = true;
+        }
+
+        return bashCmd;
+    }
+
+    /**
+     * Clones one of our repositories into another directory (e.g. {@code Spigot/Bukkit} for old versions)
+     * <p>
+     * Shallow repositories can't be cloned using JGit, so the git command is used for them.
+     */
+    private void cloneLocalRepository(@NotNull Git source, @NotNull File target) throws IOException, GitAPIException {
+        File sourceDir = source.getRepository().getDirectory().getParentFile();
+
+        if (new File(source.getRepository().getDirectory(), "shallow").isFile()) {
+            Utils.runCommand(cwd, gitCmd, "clone", "--quiet", "--config", "core.autocrlf=" + Bootstrap.AUTO_CRLF,
+                    "file://" + sourceDir.getAbsolutePath(), target.getAbsolutePath());
+        } else {
+            Utils.gitClone("file://" + sourceDir.getAbsolutePath(), target, Bootstrap.AUTO_CRLF);
+        }
+    }
+
+    @NotNull
+    private static String getRef(@NotNull BuildInfo buildInfo, @NotNull GitRepository repo) {
+        switch (repo) {
+            case BUKKIT:
+                return buildInfo.getRefs().getBukkit();
+            case CRAFT_BUKKIT:
+                return buildInfo.getRefs().getCraftBukkit();
+            case SPIGOT:
+                return buildInfo.getRefs().getSpigot();
+            case BUILD_DATA:
+                return buildInfo.getRefs().getBuildData();
+            default:
+                throw new IllegalArgumentException("Unknown repository " + repo);
+        }
+    }
+
+    /**
+     * @return The commit the given ref points to inside the given repository
+     */
+    @NotNull
+    private String resolveCommit(@NotNull Git repo, @NotNull String ref) throws IOException, BuilderException {
+        // Checking out 'master' always resets to 'origin/master'
+        ObjectId commit = repo.getRepository().resolve(ref.equals("master") ? "origin/master" : ref + "^{commit}");
+
+        if (commit == null) {
+            throw new BuilderException("Could not find '" + ref + "' in '" + repo.getRepository().getDirectory().getParent() + "'");
+        }
+
+        return commit.getName();
+    }
+
+    /**
+     * Opens a checkout of the given repository, that has been cloned using {@code git clone --shared} and checks out the given commit
+     * <p>
+     * The objects of {@code mainRepo} are used using {@code objects/info/alternates} instead of copying them.
+     * Commits and branches created inside the checkout (e.g. CraftBukkit's {@code patched} branch) are not visible to any other checkout.
+     * <p>
+     * As {@code mainRepo} does not know about the checkout, the commit is kept reachable by a ref inside of it
+     * ({@code refs/buildtools/worktrees/<checkout>}), so a {@code git gc} does not prune the objects the checkout needs
+     * when a fetch moves the branches away from it.
+     *
+     * @param mainRepo The repository in the working directory
+     * @param dir      The directory of the checkout
+     * @param commit   The commit to check out
+     */
+    @NotNull
+    private Git openIsolatedCheckout(@NotNull Git mainRepo, @NotNull File dir, @NotNull String commit) throws IOException, GitAPIException, BuilderException {
+        RefUpdate refUpdate = mainRepo.getRepository().updateRef(ISOLATED_CHECKOUT_REF_PREFIX + dir.getParentFile().getName());
+        refUpdate.setNewObjectId(ObjectId.fromString(commit));
+        refUpdate.setForceUpdate(true);
+
+        RefUpdate.Result result = refUpdate.update();
+        if (result != RefUpdate.Result.NEW && result != RefUpdate.Result.FORCED && result != RefUpdate.Result.NO_CHANGE) {
+            throw new BuilderException("Could not pin '" + commit + "' inside '" + mainRepo.getRepository().getDirectory() + "' (" + result + ")");
+        }
+
+        if (!new File(dir, ".git").isDirectory()) {
+            FileUtils.deleteDirectory(dir);     // Left behind by an aborted clone
+            Files.createDirectories(dir.getParentFile().toPath());
+
+            System.out.println("Creating isolated checkout '" + dir + "'");
+            Utils.runCommand(cwd, gitCmd, "clone", "--shared", "--no-checkout",
+                    "--config", "core.autocrlf=" + Bootstrap.AUTO_CRLF,
+                    mainRepo.getRepository().getDirectory().getParentFile().getAbsolutePath(), dir.getAbsolutePath());
+        }
+
+        Git git = Git.open(dir);
+
+        try {
+            Utils.gitCheckout(git, commit);
+        } catch (GitAPIException | RuntimeException ex) {
+            git.close();
+            throw ex;
+        }
+
+        return git;
+    }
+
+    @NotNull
+    private Object getFileLock(@NotNull File file) {
+        return fileLocks.computeIfAbsent(file.getAbsolutePath(), k -> new Object());
+    }
+
+    @NotNull
+    private static String getDirectoryName(@NotNull String rev) {
+        return rev.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    /**
+     * Fetches the given repository, unless all the commits needed by the given revisions are already present
+     * <p>
+     * Branch names (e.g. {@code master}) can't be checked locally and always require a fetch.
+     *
+     * @return {@code true} if the fetch changed any tracking refs
+     */
+    @SuppressWarnings("try")
+    private boolean gitFetch(@NotNull Git repo, @NotNull GitRepository gitRepository, @NotNull List<RevisionBuild> revisions) throws GitAPIException, IOException {
+        try (BuildReport.Phase ignored = report.startPhase("git-fetch-" + gitRepository.repoName)) {
+            boolean allPresent = true;
+
+            for (RevisionBuild revision : revisions) {
+                String ref = getRef(revision.buildInfo, gitRepository);
+
+                if (!COMMIT_ID_PATTERN.matcher(ref).matches() || repo.getRepository().resolve(ref + "^{commit}") == null) {
+                    allPresent = false;
+                    break;
+                }
+            }
+
+            BuildReport.addCacheLookup(allPresent);
+
+            if (allPresent) {
+                System.out.println("All needed commits are present in '" + repo.getRepository().getDirectory() + "', not fetching");
+                return false;
+            }
+
+            return sources.fetch(ArtifactSources.Type.GIT, gitRepository.sourcePath, gitRepository.gitUrl, url -> {
+                setOriginUrl(repo, url);
+                return Utils.gitFetch(repo);
+            });
+        }
+    }
+
+    /**
+     * Points {@code origin} to the given URL, so the next fetch uses the source chosen by {@link ArtifactSources}
+     */
+    private static void setOriginUrl(@NotNull Git repo, @NotNull String url) throws IOException {
+        StoredConfig config = repo.getRepository().getConfig();
+
+        if (!url.equals(config.getString("remote", "origin", "url"))) {
+            config.setString("remote", "origin", "url", url);
+            config.save();
+        }
+    }
+
+    @SuppressWarnings("try")
+    private int gitCheckout(@NotNull Git repo, @NotNull String ref) throws GitAPIException {
+        try (BuildReport.Phase ignored = report.startPhase("git-checkout-" + repo.getRepository().getDirectory().getParentFile().getName())) {
+            Utils.gitCheckout(repo, ref);
+        }
+
+        return 0;
+    }
+
+    private boolean checkHash(File vanillaJar, VersionInfo versionInfo, boolean dev) throws IOException {
+        String hash = hashCache.getHash(vanillaJar, HashAlgo.MD5);
 
         if (dev || versionInfo.getMinecraftHash() == null || hash.equalsIgnoreCase(versionInfo.getMinecraftHash())) {
             System.out.println("Found good Minecraft hash (" + hash + ")");
@@ -584,35 +1776,41 @@ public class Builder {
         return false;
     }
 
+    /**
+     * The options of a build, filled in by name (e.g. from the command line) before the {@link Builder} is created
+     * <p>
+     * The configuration must not be changed once the build has been started.
+     */
     public static class BuilderConfiguration {
-        public final boolean skipUpdate;
-        public final boolean exitAfterFetch;
-        public final boolean generateSrc;
-        public final boolean generateDoc;
-        public final boolean isDevMode;
-        public final boolean disableJavaCheck;
-        public final boolean onlyCompileOnChange;
-        public final boolean hasJenkinsVersion;
-
-        public final @NotNull String jenkinsVersion;
-        public final @NotNull List<Compile> toCompile;
-        public final @NotNull File outputDir;
-
-        public BuilderConfiguration(boolean skipUpdate, boolean exitAfterFetch, boolean generateSrc, boolean generateDoc, boolean isDevMode,
-                                    boolean disableJavaCheck, boolean onlyCompileOnChange, boolean hasJenkinsVersion,
-                                    @NotNull String jenkinsVersion, @NotNull List<Compile> toCompile, @NotNull File outputDir) {
-            this.skipUpdate = skipUpdate;
-            this.exitAfterFetch = exitAfterFetch;
-            this.generateSrc = generateSrc;
-            this.generateDoc = generateDoc;
-            this.isDevMode = isDevMode;
-            this.disableJavaCheck = disableJavaCheck;
-            this.onlyCompileOnChange = onlyCompileOnChange;
-            this.hasJenkinsVersion = hasJenkinsVersion;
-
-            this.jenkinsVersion = jenkinsVersion;
-            this.toCompile = toCompile;
-            this.outputDir = outputDir;
-        }
+        public boolean skipUpdate;
+        public boolean exitAfterFetch;
+        public boolean generateSrc;
+        public boolean generateDoc;
+        public boolean isDevMode;
+        public boolean disableJavaCheck;
+        public boolean onlyCompileOnChange;
+        public boolean hasJenkinsVersion;
+        public boolean runToolsInProcess;
+        public boolean useMavenDaemon;
+        public boolean isolatedCheckouts;
+        public boolean shallow;
+        public boolean offline;
+        public boolean taskLogs;
+        public boolean usePatchScript;
+        public boolean fullDecompile;
+
+        public @NotNull List<String> jenkinsVersions = new ArrayList<>();
+        public @NotNull List<Compile> toCompile = new ArrayList<>();
+        public @NotNull File outputDir = new File(".");
+        public @Nullable String mavenThreads;
+        public @Nullable File sourcesFile;
+        public int stageCpus = Runtime.getRuntime().availableProcessors();
+        public int stageMemoryMb = Utils.getTotalMemoryMb();
+        public int parallelRevisions = 1;
+        public int metadataTtlSeconds;
+        /**
+         * {@code 0} to choose the amount of shards based on {@link #stageCpus} and {@link #stageMemoryMb}
+         */
+        public int decompileShards;
     }
-}
\ No newline at end of file
+}
@@ -1,16 +1,21 @@
 package org.spigotmc.builder;
 
 public enum GitRepository {
-    BUKKIT("Bukkit", "https://hub.spigotmc.org/stash/scm/spigot/bukkit.git"),
-    CRAFT_BUKKIT("CraftBukkit", "https://hub.spigotmc.org/stash/scm/spigot/craftbukkit.git"),
-    SPIGOT("Spigot", "https://hub.spigotmc.org/stash/scm/spigot/spigot.git"),
-    BUILD_DATA("BuildData", "https://hub.spigotmc.org/stash/scm/spigot/builddata.git");
+    BUKKIT("Bukkit", "bukkit.git"),
+    CRAFT_BUKKIT("CraftBukkit", "craftbukkit.git"),
+    SPIGOT("Spigot", "spigot.git"),
+    BUILD_DATA("BuildData", "builddata.git");
 
     public final String repoName;
+    /**
+     * The path of the repository relative to a {@link ArtifactSources.Type#GIT} source
+     */
+    public final String sourcePath;
     public final String gitUrl;
 
-    GitRepository(String repoName, String gitUrl) {
+    GitRepository(String repoName, String sourcePath) {
         this.repoName = repoName;
-        this.gitUrl = gitUrl;
+        this.sourcePath = sourcePath;
+        this.gitUrl = ArtifactSources.Type.GIT.upstreamBaseUrl + sourcePath;
     }
 }
@@ -4,12 +4,18 @@ import org.jetbrains.annotations.NotNull;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public enum HashAlgo {
     MD5("MD5"), SHA256("SHA-256"), SHA512("SHA-512");
 
     private final String algorithm;
-    private MessageDigest digest;
+
+    /**
+     * Digests that are currently not in use by anyone and can be reused (They are always in their reset state)
+     */
+    private final Queue<MessageDigest> digestPool = new ConcurrentLinkedQueue<>();
 
     HashAlgo(String algorithm) {
         this.algorithm = algorithm;
@@ -19,30 +25,48 @@ public enum HashAlgo {
         return algorithm;
     }
 
-    public void update(@NotNull byte[] bytes) {
-        getDigest().update(bytes);
+    /**
+     * This method is thread-safe
+     */
+    @NotNull
+    public String getHash(@NotNull byte[] bytes) {
+        MessageDigest digest = borrowDigest();
+
+        try {
+            return Utils.toHex(digest.digest(bytes));
+        } finally {
+            releaseDigest(digest);
+        }
     }
 
+    /**
+     * Creates a new {@link MessageDigest} for this algorithm that is not shared with anyone else
+     *
+     * @return A new {@link MessageDigest} instance
+     */
     @NotNull
-    public String getHash() {
-        return Utils.toHex(getDigest().digest());
+    public MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("Hash algorithm " + algorithm + " is not supported by this JVM", ex);
+        }
     }
 
+    /**
+     * Takes a digest out of the pool or creates a new one if the pool is empty
+     * <p>
+     * The caller has exclusive access to the returned digest until it is given back using {@link #releaseDigest(MessageDigest)}
+     */
     @NotNull
-    public String getHash(@NotNull byte[] bytes) {
-        return Utils.toHex(getDigest().digest(bytes));
-    }
+    MessageDigest borrowDigest() {
+        MessageDigest digest = digestPool.poll();
 
-    private MessageDigest getDigest() {
-        if (digest == null) {
-            try {
-                this.digest = MessageDigest.getInstance(algorithm);
-            } catch (NoSuchAlgorithmException ex) {
-                ex.printStackTrace();
-                System.exit(1);
-            }
-        }
+        return digest != null ? digest : createDigest();
+    }
 
-        return digest;
+    void releaseDigest(@NotNull MessageDigest digest) {
+        digest.reset();
+        digestPool.offer(digest);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,165 @@
+package org.spigotmc.builder;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the hashes of files, so files that did not change since the last run don't have to be hashed again
+ * <p>
+ * Entries are keyed by the absolute path of a file and are only considered valid
+ * as long as the size and last modification time of that file did not change.
+ */
+public class HashCache {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final Type INDEX_TYPE = new TypeToken<Map<String, Entry>>() { }.getType();
+
+    private final File indexFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public HashCache(@NotNull File indexFile) {
+        this.indexFile = indexFile;
+
+        load();
+    }
+
+    /**
+     * Returns the hash of the given file, only reading the file if it changed since it has been hashed the last time
+     *
+     * @param file     The file to hash
+     * @param hashAlgo The algorithm to use
+     *
+     * @return The hash as lower case hex string
+     *
+     * @throws IOException If the file could not be read
+     */
+    @NotNull
+    public String getHash(@NotNull File file, @NotNull HashAlgo hashAlgo) throws IOException {
+        return getHashes(file, hashAlgo).get(hashAlgo);
+    }
+
+    /**
+     * Returns the hashes of the given file, only reading the file if it changed since it has been hashed the last time
+     * <p>
+     * All the hashes that are not known yet, are computed in a single pass over the file.
+     *
+     * @param file      The file to hash
+     * @param hashAlgos The algorithms to use
+     *
+     * @return The hashes as lower case hex strings
+     *
+     * @throws IOException If the file could not be read
+     */
+    @NotNull
+    public Map<HashAlgo, String> getHashes(@NotNull File file, @NotNull HashAlgo... hashAlgos) throws IOException {
+        String key = file.getAbsoluteFile().toPath().normalize().toString();
+        long size = file.length();
+        long lastModified = file.lastModified();
+
+        Map<HashAlgo, String> result = new EnumMap<>(HashAlgo.class);
+        List<HashAlgo> missing = new ArrayList<>(hashAlgos.length);
+
+        Entry entry = entries.get(key);
+        for (HashAlgo hashAlgo : hashAlgos) {
+            String hash = entry != null && entry.matches(size, lastModified) ? entry.getHash(hashAlgo) : null;
+
+            if (hash != null) {
+                result.put(hashAlgo, hash);
+            } else {
+                missing.add(hashAlgo);
+            }
+        }
+
+        BuildReport.addCacheLookup(missing.isEmpty());
+
+        if (missing.isEmpty()) {
+            return result;
+        }
+
+        BuildReport.addBytesRead(size);
+        Map<HashAlgo, String> newHashes = new Hasher(missing.toArray(new HashAlgo[0])).update(file).getHashes();
+        result.putAll(newHashes);
+
+        // Only remember the hashes if the file did not change while we were reading it
+        if (file.length() == size && file.lastModified() == lastModified) {
+            entries.compute(key, (k, oldEntry) -> {
+                Entry newEntry = oldEntry != null && oldEntry.matches(size, lastModified) ? oldEntry : new Entry(size, lastModified);
+                newHashes.forEach(newEntry::putHash);
+
+                return newEntry;
+            });
+
+            save();
+        }
+
+        return result;
+    }
+
+    private void load() {
+        if (!indexFile.isFile()) {
+            return;
+        }
+
+        try (Reader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            Map<String, Entry> index = GSON.fromJson(reader, INDEX_TYPE);
+
+            if (index != null) {
+                index.forEach((key, entry) -> {
+                    if (key != null && entry != null && entry.hashes != null) {
+                        Entry copy = new Entry(entry.size, entry.lastModified);
+                        entry.hashes.forEach((hashAlgo, hash) -> {
+                            if (hashAlgo != null && hash != null) {
+                                copy.putHash(hashAlgo, hash);
+                            }
+                        });
+
+                        entries.put(key, copy);
+                    }
+                });
+            }
+        } catch (IOException | JsonParseException ex) {
+            System.err.println("Could not read hash cache '" + indexFile + "', ignoring it (" + ex.getMessage() + ")");
+        }
+    }
+
+    private synchronized void save() throws IOException {
+        Utils.writeAtomically(indexFile, writer -> GSON.toJson(entries, INDEX_TYPE, writer));
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long lastModified;
+        private final Map<HashAlgo, String> hashes = new ConcurrentHashMap<>();
+
+        private Entry(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        private boolean matches(long size, long lastModified) {
+            return this.size == size && this.lastModified == lastModified;
+        }
+
+        private String getHash(HashAlgo hashAlgo) {
+            return hashes.get(hashAlgo);
+        }
+
+        private void putHash(HashAlgo hashAlgo, String hash) {
+            hashes.put(hashAlgo, hash);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.spigotmc.builder;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Computes the hashes for one or more {@link HashAlgo}s in a single pass over the data
+ * <p>
+ * A {@code Hasher} is not thread-safe but never shares its digests with anyone else,
+ * so multiple threads can safely hash at the same time by using their own instances.
+ * <p>
+ * Once the hashes have been read using {@link #getHash(HashAlgo)} or {@link #getHashes()}
+ * the instance can no longer be updated (see {@link #reset()}).
+ */
+public class Hasher {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Map<HashAlgo, MessageDigest> digests = new EnumMap<>(HashAlgo.class);
+    private Map<HashAlgo, String> hashes;
+
+    public Hasher(@NotNull HashAlgo... hashAlgos) {
+        if (hashAlgos.length == 0) throw new IllegalArgumentException("You have to provide at least one hash algorithm");
+
+        for (HashAlgo hashAlgo : hashAlgos) {
+            digests.computeIfAbsent(hashAlgo, HashAlgo::borrowDigest);
+        }
+    }
+
+    @NotNull
+    public Hasher update(@NotNull byte[] bytes) {
+        return update(bytes, 0, bytes.length);
+    }
+
+    @NotNull
+    public Hasher update(@NotNull byte[] bytes, int offset, int length) {
+        if (hashes != null) throw new IllegalStateException("The hashes have already been computed, call reset() first");
+
+        for (MessageDigest digest : digests.values()) {
+            digest.update(bytes, offset, length);
+        }
+
+        return this;
+    }
+
+    @NotNull
+    public Hasher update(@NotNull String str) {
+        return update(str.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads the given stream until its end, without closing it
+     */
+    @NotNull
+    public Hasher update(@NotNull InputStream in) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        for (int len; (len = in.read(buffer)) != -1; ) {
+            update(buffer, 0, len);
+        }
+
+        return this;
+    }
+
+    @NotNull
+    public Hasher update(@NotNull File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return update(in);
+        }
+    }
+
+    /**
+     * Discards all data and hashes, so this instance can be used to hash something else
+     */
+    @NotNull
+    public Hasher reset() {
+        if (hashes != null) {
+            for (HashAlgo hashAlgo : hashes.keySet()) {
+                digests.put(hashAlgo, hashAlgo.borrowDigest());
+            }
+
+            hashes = null;
+        } else {
+            for (MessageDigest digest : digests.values()) {
+                digest.reset();
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * @throws IllegalArgumentException If this instance has not been created with the given {@link HashAlgo}
+     */
+    @NotNull
+    public String getHash(@NotNull HashAlgo hashAlgo) {
+        String hash = getHashes().get(hashAlgo);
+
+        if (hash == null) {
+            throw new IllegalArgumentException("This Hasher does not compute " + hashAlgo.getAlgorithm());
+        }
+
+        return hash;
+    }
+
+    @NotNull
+    public Map<HashAlgo, String> getHashes() {
+        if (hashes == null) {
+            Map<HashAlgo, String> result = new EnumMap<>(HashAlgo.class);
+
+            for (Map.Entry<HashAlgo, MessageDigest> entry : digests.entrySet()) {
+                result.put(entry.getKey(), Utils.toHex(entry.getValue().digest()));
+
+                // The digest has been reset by calling #digest() and can be used by someone else
+                entry.getKey().releaseDigest(entry.getValue());
+            }
+
+            digests.clear();
+            hashes = Collections.unmodifiableMap(result);
+        }
+
+        return hashes;
+    }
+}
@@ -0,0 +1,318 @@
+package org.spigotmc.builder;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.Permission;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Runs executable jars (e.g. SpecialSource or fernflower) inside the BuildTools JVM instead of spawning a new one
+ * <p>
+ * Every jar is loaded in its own class loader that does not see any of the BuildTools classes or dependencies.
+ * The class loaders are kept until {@link #close()} is called, so running the same tool again can reuse already JIT-compiled code.
+ * Different tools may run at the same time, runs of the same tool jar wait for each other.
+ * <p>
+ * The tools share the working directory of BuildTools, so every path passed to them has to be absolute.
+ * <p>
+ * Every tool runs in a thread of its own {@link ThreadGroup}. Calls to {@link System#exit(int)} by any thread of that group
+ * (including threads started by the tool) are intercepted, using a {@link SecurityManager} that is only installed while tools are running.
+ * Other threads (e.g. concurrently running build stages) are not affected.
+ * <p>
+ * This only works on Java 17 and older: Java 17 prints a warning about the deprecated Security Manager,
+ * later versions refuse to install one unless {@code -Djava.security.manager=allow} is used.
+ * If installing it is not possible or the tool fails in any way, {@link #run(File, String[])} returns {@code false}
+ * and the caller is expected to fall back to running the command in a new process.
+ */
+public class InProcessJarRunner {
+    private static final Map<String, URLClassLoader> classLoaders = new ConcurrentHashMap<>();
+    private static final Map<String, Object> jarLocks = new ConcurrentHashMap<>();
+    private static final Set<ThreadGroup> toolThreadGroups = ConcurrentHashMap.newKeySet();
+    private static final Map<ThreadGroup, Integer> trappedExits = new ConcurrentHashMap<>();
+    private static final Object securityManagerLock = new Object();
+
+    private static volatile boolean securityManagerUnsupported = false;
+    private static int activeRuns = 0;
+    private static SecurityManager previousSecurityManager;
+
+    private InProcessJarRunner() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Checks if the given command has the form {@code java -jar <jar> [args...]}
+     */
+    public static boolean isSupported(@NotNull String[] command) {
+        return command.length >= 3 &&
+                command[0].equalsIgnoreCase("java") &&
+                command[1].equals("-jar");
+    }
+
+    /**
+     * Runs a command of the form {@code java -jar <jar> [args...]} inside this JVM
+     *
+     * @param workingDir The directory a relative path to the jar is resolved against (the arguments have to be absolute paths)
+     * @param command    The command, the first element being {@code java}
+     *
+     * @return {@code true} if the tool has been run successfully, {@code false} if the command has to be run in a new process
+     */
+    public static boolean run(@NotNull File workingDir, @NotNull String[] command) {
+        if (securityManagerUnsupported || !isSupported(command)) {
+            return false;
+        }
+
+        File jar = workingDir.getAbsoluteFile().toPath().resolve(command[2]).toFile();
+        String[] args = Arrays.stream(command, 3, command.length)
+                .filter(arg -> arg != null && !arg.isEmpty())
+                .toArray(String[]::new);
+
+        Object jarLock;
+        try {
+            jarLock = jarLocks.computeIfAbsent(jar.getCanonicalPath(), k -> new Object());
+        } catch (IOException ex) {
+            System.err.println("Could not find '" + jar + "' (" + ex.getMessage() + "), running it in a new process");
+            return false;
+        }
+
+        synchronized (jarLock) {
+            return runTool(jar, args);
+        }
+    }
+
+    private static boolean runTool(@NotNull File jar, @NotNull String[] args) {
+        try {
+            URLClassLoader classLoader = getClassLoader(jar);
+            String mainClass = getMainClass(jar);
+
+            if (mainClass == null) {
+                System.err.println("Could not find Main-Class in '" + jar + "', running it in a new process");
+                return false;
+            }
+
+            Method main = classLoader.loadClass(mainClass).getMethod("main", String[].class);
+
+            ThreadGroup threadGroup = new ToolThreadGroup(jar.getName());
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            TaskOutput.Channel channel = TaskOutput.getCurrentChannel();
+
+            Thread thread = new Thread(threadGroup, () -> {
+                // The tool prints through the channel of the calling thread
+                TaskOutput.Channel toolChannel = TaskOutput.forkChannel(channel);
+
+                try {
+                    main.invoke(null, (Object) args);
+                } catch (InvocationTargetException ex) {
+                    failure.set(ex.getCause());
+                } catch (Throwable ex) {
+                    failure.set(ex);
+                } finally {
+                    if (toolChannel != null) {
+                        toolChannel.close();
+                    }
+                }
+            }, threadGroup.getName());
+            thread.setContextClassLoader(classLoader);
+
+            if (!beginRun(threadGroup)) {
+                return false;
+            }
+
+            System.out.println("Running '" + jar.getName() + "' in-process");
+
+            try {
+                thread.start();
+                thread.join();
+            } finally {
+                endRun(threadGroup);
+            }
+
+            Integer status = trappedExits.remove(threadGroup);
+
+            if (status == null && failure.get() != null) {
+                throw failure.get();
+            }
+
+            if (status != null && status != 0) {
+                System.err.println("'" + jar.getName() + "' exited with status " + status + ", retrying in a new process");
+                return false;
+            }
+
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Throwable ex) {
+            System.err.println("Running '" + jar.getName() + "' in-process failed, retrying in a new process");
+            ex.printStackTrace();
+
+            return false;
+        }
+    }
+
+    /**
+     * Installs the {@link ExitTrappingSecurityManager}, if this is the only tool running right now
+     *
+     * @param threadGroup The thread group of the tool, whose calls to {@link System#exit(int)} are trapped from now on
+     *
+     * @return {@code true} if the {@link ExitTrappingSecurityManager} is installed
+     */
+    private static boolean beginRun(@NotNull ThreadGroup threadGroup) {
+        synchronized (securityManagerLock) {
+            if (activeRuns == 0) {
+                SecurityManager securityManager = System.getSecurityManager();
+
+                try {
+                    System.setSecurityManager(new ExitTrappingSecurityManager(securityManager));
+                } catch (UnsupportedOperationException | SecurityException ex) {
+                    securityManagerUnsupported = true;
+                    System.err.println("Cannot run tools in-process on this JVM (" + ex.getMessage() + "), running them in a new process");
+                    return false;
+                }
+
+                previousSecurityManager = securityManager;
+            }
+
+            ++activeRuns;
+            toolThreadGroups.add(threadGroup);
+            return true;
+        }
+    }
+
+    /**
+     * Restores the previous security manager, once no tool is running anymore
+     */
+    private static void endRun(@NotNull ThreadGroup threadGroup) {
+        synchronized (securityManagerLock) {
+            toolThreadGroups.remove(threadGroup);
+
+            if (--activeRuns == 0 && System.getSecurityManager() instanceof ExitTrappingSecurityManager) {
+                System.setSecurityManager(previousSecurityManager);
+                previousSecurityManager = null;
+            }
+        }
+    }
+
+    /**
+     * Closes all the class loaders created for running tools, once no more tools are run
+     */
+    public static void close() {
+        for (URLClassLoader classLoader : classLoaders.values()) {
+            try {
+                classLoader.close();
+            } catch (IOException ignore) {
+            }
+        }
+
+        classLoaders.clear();
+    }
+
+    @NotNull
+    private static URLClassLoader getClassLoader(@NotNull File jar) throws IOException {
+        File canonicalJar = jar.getCanonicalFile();
+        String key = canonicalJar.getPath() + ':' + canonicalJar.length() + ':' + canonicalJar.lastModified();
+
+        URLClassLoader classLoader = classLoaders.get(key);
+
+        if (classLoader == null) {
+            // The parent is the extension/platform class loader, so the tool can't see any of our dependencies
+            classLoader = new URLClassLoader(new URL[] {canonicalJar.toURI().toURL()}, ClassLoader.getSystemClassLoader().getParent());
+            classLoaders.put(key, classLoader);
+        }
+
+        return classLoader;
+    }
+
+    @Nullable
+    private static String getMainClass(@NotNull File jar) throws IOException {
+        try (JarFile jarFile = new JarFile(jar)) {
+            Manifest manifest = jarFile.getManifest();
+
+            return manifest != null ? manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS) : null;
+        }
+    }
+
+    /**
+     * Only traps {@link System#exit(int)} calls of threads inside the thread group of a running tool,
+     * everything else is passed on to the security manager that has been installed before (if any)
+     */
+    private static class ExitTrappingSecurityManager extends SecurityManager {
+        private final SecurityManager parent;
+
+        private ExitTrappingSecurityManager(@Nullable SecurityManager parent) {
+            this.parent = parent;
+        }
+
+        @Override
+        public void checkExit(int status) {
+            ThreadGroup group = Thread.currentThread().getThreadGroup();
+
+            for (ThreadGroup toolThreadGroup : toolThreadGroups) {
+                if (toolThreadGroup.parentOf(group)) {
+                    trappedExits.putIfAbsent(toolThreadGroup, status);
+                    throw new ExitTrappedException(status);
+                }
+            }
+
+            if (parent != null) {
+                parent.checkExit(status);
+            }
+        }
+
+        @Override
+        public void checkPermission(Permission perm) {
+            if (parent != null) {
+                parent.checkPermission(perm);
+            }
+        }
+
+        @Override
+        public void checkPermission(Permission perm, Object context) {
+            if (parent != null) {
+                parent.checkPermission(perm, context);
+            }
+        }
+    }
+
+    /**
+     * Does not report the {@link ExitTrappedException} thrown in a thread of the tool, that tried to exit
+     */
+    private static class ToolThreadGroup extends ThreadGroup {
+        private ToolThreadGroup(@NotNull String jarName) {
+            super("BuildTools-" + jarName);
+
+            setDaemon(true);    // Destroyed once the tool's last thread has finished
+        }
+
+        @Override
+        public void uncaughtException(Thread thread, Throwable ex) {
+            if (!(ex instanceof ExitTrappedException)) {
+                super.uncaughtException(thread, ex);
+            }
+        }
+    }
+
+    private static class ExitTrappedException extends SecurityException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        private ExitTrappedException(int status) {
+            super("System.exit(" + status + ") has been called");
+
+            this.status = status;
+        }
+    }
+}
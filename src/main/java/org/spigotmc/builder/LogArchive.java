@@ -0,0 +1,140 @@
+package org.spigotmc.builder;
+
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the logs of previous runs as gzip compressed files
+ * <p>
+ * The log of the previous run is only moved into the archive directory before the new log is started,
+ * compressing it happens in the background. Logs that could not be compressed before BuildTools exited
+ * are compressed during the next run, half-written archives of such runs are deleted.
+ */
+public class LogArchive {
+    private static final String LOG_EXTENSION = ".log";
+    private static final String ARCHIVE_EXTENSION = ".log.gz";
+    private static final String TMP_EXTENSION = ".gz.tmp";
+
+    private final File archiveDir;
+    private final long retentionBytes;
+    private volatile Thread compressThread;
+
+    /**
+     * @param archiveDir     The directory to keep the old logs in
+     * @param retentionBytes The amount of bytes the compressed logs may use together, the oldest ones are deleted first
+     */
+    public LogArchive(@NotNull File archiveDir, long retentionBytes) {
+        this.archiveDir = archiveDir;
+        this.retentionBytes = retentionBytes;
+    }
+
+    /**
+     * Moves the given log into the archive and starts compressing the archive in the background
+     *
+     * @param logFile The log of the previous run (does not need to exist)
+     */
+    public void archive(@NotNull File logFile) throws IOException {
+        if (logFile.isFile() && logFile.length() > 0) {
+            Files.createDirectories(archiveDir.toPath());
+
+            String name = logFile.getName().replaceFirst("\\..*$", "") + '-' +
+                    new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss", Locale.ENGLISH).format(new Date(logFile.lastModified()));
+
+            File target = new File(archiveDir, name + LOG_EXTENSION);
+            for (int i = 1; target.exists() || new File(archiveDir, target.getName() + ".gz").exists(); ++i) {
+                target = new File(archiveDir, name + '-' + i + LOG_EXTENSION);
+            }
+
+            Files.move(logFile.toPath(), target.toPath());
+        }
+
+        if (archiveDir.isDirectory()) {
+            compressThread = new Thread(this::compressAndCleanUp, "BuildTools-LogArchive");
+            compressThread.setDaemon(true);
+            compressThread.setPriority(Thread.MIN_PRIORITY);
+            compressThread.start();
+        }
+    }
+
+    /**
+     * Waits for the compression started by {@link #archive(File)} to finish, so that it is not killed halfway when the JVM exits
+     *
+     * @param timeoutMillis The maximum time to wait, whatever is left afterwards is compressed during the next run
+     */
+    public void awaitCompletion(long timeoutMillis) {
+        Thread thread = compressThread;
+
+        if (thread != null) {
+            try {
+                thread.join(timeoutMillis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void compressAndCleanUp() {
+        try {
+            // Left behind by runs that exited while compressing
+            for (File file : listFiles(TMP_EXTENSION)) {
+                Files.deleteIfExists(file.toPath());
+            }
+
+            for (File file : listFiles(LOG_EXTENSION)) {
+                compress(file);
+            }
+
+            List<File> archives = listFiles(ARCHIVE_EXTENSION);
+            archives.sort(Comparator.comparingLong(File::lastModified).reversed());
+
+            long usedBytes = 0;
+            for (File archive : archives) {
+                usedBytes += archive.length();
+
+                if (usedBytes > retentionBytes) {
+                    Files.deleteIfExists(archive.toPath());
+                }
+            }
+        } catch (IOException ex) {
+            System.err.println("Could not compress the logs inside '" + archiveDir + "' (" + ex.getMessage() + ")");
+        }
+    }
+
+    private void compress(@NotNull File file) throws IOException {
+        File target = new File(file.getPath() + ".gz");
+        File tmpFile = new File(file.getPath() + TMP_EXTENSION);
+
+        try (InputStream in = Files.newInputStream(file.toPath());
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmpFile.toPath()))) {
+            IOUtils.copy(in, out);
+        }
+
+        if (!tmpFile.setLastModified(file.lastModified())) {
+            System.err.println("Could not keep the modification time of '" + file + "'");
+        }
+
+        Utils.moveReplacing(tmpFile.toPath(), target.toPath());
+
+        Files.delete(file.toPath());
+    }
+
+    @NotNull
+    private List<File> listFiles(@NotNull String extension) {
+        File[] files = archiveDir.listFiles((dir, name) -> name.endsWith(extension));
+        return files != null ? new ArrayList<>(Arrays.asList(files)) : new ArrayList<>();
+    }
+}
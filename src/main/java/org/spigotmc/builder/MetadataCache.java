@@ -0,0 +1,174 @@
+package org.spigotmc.builder;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches small text documents like the version files on {@code hub.spigotmc.org}, so they don't have to be downloaded on every run
+ * <p>
+ * Entries younger than the TTL are used without asking the server. Older entries are revalidated using a conditional
+ * request ({@code If-None-Match} and {@code If-Modified-Since}), that only transfers the document if it did change.
+ * If the server can't be reached, a cached entry is used no matter how old it is.
+ */
+public class MetadataCache {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+    private final File cacheDir;
+    private final long ttlMillis;
+    private final boolean offline;
+    private final ArtifactSources sources;
+
+    /**
+     * @param cacheDir   The directory to store the entries in
+     * @param ttlSeconds How long an entry is used without revalidating it
+     * @param offline    {@code true} if only cached entries may be used
+     * @param sources    The sources to download the documents from
+     */
+    public MetadataCache(@NotNull File cacheDir, long ttlSeconds, boolean offline, @NotNull ArtifactSources sources) {
+        this.cacheDir = cacheDir;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.offline = offline;
+        this.sources = sources;
+    }
+
+    /**
+     * Entries are identified by type and path, so a document cached from one source is used for all the others too.
+     *
+     * @param type The type of the document
+     * @param path The path of the document relative to its source (see {@link ArtifactSources})
+     *
+     * @return The document (from the cache if possible)
+     *
+     * @throws FileNotFoundException If the server says the document does not exist
+     * @throws IOException           If the document could neither be downloaded nor has been cached before
+     */
+    @NotNull
+    public String get(@NotNull ArtifactSources.Type type, @NotNull String path) throws IOException {
+        String key = type.key + '/' + path;
+        File entryFile = new File(cacheDir, new Hasher(HashAlgo.SHA256).update(key).getHash(HashAlgo.SHA256) + ".json");
+        Entry entry = readEntry(entryFile);
+
+        long age = entry != null ? System.currentTimeMillis() - entry.fetchedAt : -1;
+
+        if (entry != null && (offline || (age >= 0 && age < ttlMillis))) {
+            BuildReport.addCacheLookup(true);
+            return entry.body;
+        }
+
+        if (offline) {
+            throw new IOException("'" + key + "' has not been cached yet and can't be downloaded in offline mode");
+        }
+
+        Entry newEntry;
+        try {
+            newEntry = sources.fetch(type, path, null, url -> fetch(url, entry));
+        } catch (FileNotFoundException ex) {
+            throw ex;   // The server told us the document does not exist, an old copy won't help
+        } catch (IOException ex) {
+            if (entry == null) {
+                throw ex;
+            }
+
+            System.err.println("*** Could not download '" + key + "' (" + ex.getMessage() + "), " +
+                    "using the cached copy from " + new Date(entry.fetchedAt));
+            BuildReport.addCacheLookup(true);
+
+            return entry.body;
+        }
+
+        BuildReport.addCacheLookup(newEntry.body.equals(entry != null ? entry.body : null));
+        writeEntry(entryFile, newEntry);
+
+        return newEntry.body;
+    }
+
+    /**
+     * Downloads the document, unless the server tells us that the cached copy is still up to date
+     */
+    @NotNull
+    private Entry fetch(@NotNull String url, @Nullable Entry cached) throws IOException {
+        URLConnection con = new URL(url).openConnection();
+        con.setConnectTimeout(5000);
+        con.setReadTimeout(5000);
+
+        if (cached != null && con instanceof HttpURLConnection) {
+            if (cached.etag != null) {
+                con.setRequestProperty("If-None-Match", cached.etag);
+            }
+
+            if (cached.lastModified != null) {
+                con.setRequestProperty("If-Modified-Since", cached.lastModified);
+            }
+
+            if (((HttpURLConnection) con).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                ((HttpURLConnection) con).disconnect();
+
+                return new Entry(url, cached.etag, cached.lastModified, System.currentTimeMillis(), cached.body);
+            }
+        }
+
+        try (InputStream in = con.getInputStream()) {
+            byte[] body = IOUtils.toByteArray(in);
+            BuildReport.addBytesDownloaded(body.length);
+
+            return new Entry(url, con.getHeaderField("ETag"), con.getHeaderField("Last-Modified"),
+                    System.currentTimeMillis(), new String(body, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Nullable
+    private static Entry readEntry(@NotNull File entryFile) {
+        if (!entryFile.isFile()) {
+            return null;
+        }
+
+        try (Reader reader = Files.newBufferedReader(entryFile.toPath(), StandardCharsets.UTF_8)) {
+            Entry entry = GSON.fromJson(reader, Entry.class);
+
+            if (entry != null && entry.body != null) {
+                return entry;
+            }
+        } catch (IOException | JsonParseException ex) {
+            System.err.println("Could not read cached metadata '" + entryFile + "', ignoring it (" + ex.getMessage() + ")");
+        }
+
+        return null;
+    }
+
+    private static void writeEntry(@NotNull File entryFile, @NotNull Entry entry) throws IOException {
+        Utils.writeAtomically(entryFile, writer -> GSON.toJson(entry, writer));
+    }
+
+    private static class Entry {
+        private final String url;
+        private final String etag;
+        private final String lastModified;
+        private final long fetchedAt;
+        private final String body;
+
+        private Entry(String url, String etag, String lastModified, long fetchedAt, String body) {
+            this.url = url;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.fetchedAt = fetchedAt;
+            this.body = body;
+        }
+    }
+}
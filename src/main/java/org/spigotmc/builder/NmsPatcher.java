@@ -0,0 +1,390 @@
+package org.spigotmc.builder;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import difflib.DiffUtils;
+import difflib.Patch;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Applies CraftBukkit's {@code nms-patches} to the decompiled Minecraft sources
+ * <p>
+ * Every patch targets its own file, so the patches are applied in parallel.
+ * <p>
+ * The results are recorded in a manifest, keyed by the hash of the patch and the clean source.
+ * A patched file is only written again if one of its inputs changed or the file itself has been modified since.
+ * <p>
+ * Every patched file is also stored as blob in the git repository, so a commit containing them can be created
+ * without having to add the files from the working tree.
+ */
+public class NmsPatcher {
+    private static final String NMS_PACKAGE_PATH = "net/minecraft/server/";
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final Type MANIFEST_TYPE = new TypeToken<Map<String, ManifestEntry>>() { }.getType();
+
+    private final File patchDir;
+    private final File decompileDir;
+    private final File srcDir;
+    private final File manifestFile;
+    private final File backupDir;
+    private final Repository repository;
+
+    private final Map<String, ManifestEntry> manifest = new ConcurrentHashMap<>();
+    private boolean backupDirCreated = false;
+
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    /**
+     * @param patchDir     The {@code nms-patches} directory inside the CraftBukkit repository
+     * @param decompileDir The directory containing the clean decompiled sources
+     * @param srcDir       The source root to write the patched files to (e.g. {@code CraftBukkit/src/main/java})
+     * @param manifestFile The file to persist the results in
+     * @param backupDir    The directory files are moved to, if they would be overwritten but have not been written by us
+     * @param repository   The repository to store the patched files in
+     */
+    public NmsPatcher(@NotNull File patchDir, @NotNull File decompileDir, @NotNull File srcDir,
+                      @NotNull File manifestFile, @NotNull File backupDir, @NotNull Repository repository) {
+        this.patchDir = patchDir;
+        this.decompileDir = decompileDir;
+        this.srcDir = srcDir;
+        this.manifestFile = manifestFile;
+        this.backupDir = backupDir;
+        this.repository = repository;
+    }
+
+    /**
+     * @return All the patch files sorted by their name
+     */
+    @NotNull
+    public List<File> getPatchFiles() {
+        List<File> patches = new ArrayList<>();
+
+        for (File file : Objects.requireNonNull(patchDir.listFiles(), "Could not list files in '" + patchDir + "'")) {
+            if (file.getName().endsWith(".patch")) {
+                patches.add(file);
+            }
+        }
+
+        patches.sort(Comparator.comparing(File::getName));
+        return patches;
+    }
+
+    /**
+     * @return The source file path (relative to the source root) the given patch applies to
+     */
+    @NotNull
+    public static String getTargetFile(@NotNull File patchFile) {
+        return NMS_PACKAGE_PATH + patchFile.getName().replace(".patch", ".java");
+    }
+
+    /**
+     * Applies all the patches using the given amount of threads
+     * <p>
+     * A failing patch does not stop the others from being applied.
+     * Once all patches have been processed, every failure is reported at once.
+     * <p>
+     * Files inside {@code net/} of the source root, that do not belong to any patch, are removed.
+     *
+     * @param threadCount The amount of threads to apply the patches with
+     *
+     * @return The blobs of all the patched files, keyed by their path relative to the source root
+     *
+     * @throws BuilderException If at least one patch could not be applied
+     * @throws IOException      If the output directory could not be created or the manifest could not be written
+     */
+    @NotNull
+    public Map<String, ObjectId> applyPatches(int threadCount) throws BuilderException, IOException {
+        loadManifest();
+        bytesRead.set(0);
+        bytesWritten.set(0);
+
+        List<File> patches = getPatchFiles();
+        Map<String, Exception> failedPatches = new ConcurrentSkipListMap<>();
+        Map<String, ObjectId> blobs = new ConcurrentSkipListMap<>();
+        AtomicInteger patchedFiles = new AtomicInteger();
+
+        Files.createDirectories(new File(srcDir, NMS_PACKAGE_PATH).toPath());
+
+        if (!patches.isEmpty()) {
+            int threads = Math.max(1, Math.min(threadCount, patches.size()));
+
+            Utils.MultiThreadedTask[] tasks = new Utils.MultiThreadedTask[threads];
+            for (int i = 0; i < threads; ++i) {
+                final int firstIndex = i;
+
+                tasks[i] = () -> {
+                    // Each thread takes every n-th patch, so big and small files get distributed evenly
+                    for (int j = firstIndex; j < patches.size(); j += threads) {
+                        File patchFile = patches.get(j);
+
+                        try {
+                            if (applyPatch(patchFile, blobs)) {
+                                patchedFiles.incrementAndGet();
+                            }
+                        } catch (Exception ex) {
+                            failedPatches.put(patchFile.getName(), ex);
+                        }
+                    }
+
+                    return 0;
+                };
+            }
+
+            try {
+                Utils.runTasksMultiThreaded(threads, tasks);
+            } catch (IOException | BuilderException | RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new IOException("Could not apply the CraftBukkit patches", ex);
+            }
+        }
+
+        Set<String> targetFiles = new HashSet<>();
+        for (File patchFile : patches) {
+            targetFiles.add(getTargetFile(patchFile));
+        }
+        removeStaleFiles(targetFiles);
+
+        saveManifest();
+
+        if (!failedPatches.isEmpty()) {
+            StringBuilder msg = new StringBuilder("Could not apply ")
+                    .append(failedPatches.size())
+                    .append(" of ")
+                    .append(patches.size())
+                    .append(" CraftBukkit patches:");
+
+            for (Map.Entry<String, Exception> entry : failedPatches.entrySet()) {
+                msg.append("\n  - ")
+                        .append(entry.getKey())
+                        .append(": ")
+                        .append(entry.getValue());
+            }
+
+            throw new BuilderException(msg.toString(), failedPatches.values().iterator().next());
+        }
+
+        BuildReport.addCacheLookups(patches.size() - patchedFiles.get(), patchedFiles.get());
+        BuildReport.addBytesRead(bytesRead.get());
+        BuildReport.addBytesWritten(bytesWritten.get());
+
+        System.out.println("Applied " + patches.size() + " CraftBukkit patches (" +
+                (patches.size() - patchedFiles.get()) + " files were already up to date)");
+
+        return blobs;
+    }
+
+    /**
+     * @param blobs The map to put the blob of the patched file into
+     *
+     * @return {@code true} if the target file has been written, {@code false} if it was already up to date
+     */
+    private boolean applyPatch(@NotNull File patchFile, @NotNull Map<String, ObjectId> blobs) throws Exception {
+        String targetFile = getTargetFile(patchFile);
+
+        File clean = new File(decompileDir, targetFile);
+        File t = new File(srcDir, targetFile);
+
+        byte[] patchBytes = Files.readAllBytes(patchFile.toPath());
+        byte[] cleanBytes = Files.readAllBytes(clean.toPath());
+        bytesRead.addAndGet(patchBytes.length + cleanBytes.length);
+
+        String inputHash = new Hasher(HashAlgo.SHA256)
+                .update(patchBytes.length + ":")
+                .update(patchBytes)
+                .update(cleanBytes)
+                .getHash(HashAlgo.SHA256);
+
+        ManifestEntry entry = manifest.get(targetFile);
+        boolean isOurFile = entry != null && entry.matchesOutput(t);
+
+        if (isOurFile && entry.inputHash.equals(inputHash)) {
+            ObjectId blobId = entry.blobId != null ? ObjectId.fromString(entry.blobId) : null;
+
+            // The repository may have been cloned again since
+            if (blobId == null || !repository.getObjectDatabase().has(blobId)) {
+                byte[] content = Files.readAllBytes(t.toPath());
+                bytesRead.addAndGet(content.length);
+
+                blobId = insertBlob(new String(content, StandardCharsets.UTF_8));
+                manifest.put(targetFile, new ManifestEntry(inputHash, blobId, t));
+            }
+
+            blobs.put(targetFile, blobId);
+            return false;
+        }
+
+        if (t.exists() && !isOurFile) {
+            backupFile(targetFile);
+        }
+
+        List<String> readFile = IOUtils.readLines(new StringReader(new String(patchBytes, StandardCharsets.UTF_8)));
+
+        // Manually append a prelude if it is not found in the first few lines.
+        boolean preludeFound = false;
+        for (int i = 0; i < Math.min(3, readFile.size()); ++i) {
+            if (readFile.get(i).startsWith("+++")) {
+                preludeFound = true;
+                break;
+            }
+        }
+        if (!preludeFound) {
+            readFile.add(0, "+++");
+        }
+
+        Patch parsedPatch = DiffUtils.parseUnifiedDiff(readFile);
+        List<?> modifiedLines = DiffUtils.patch(IOUtils.readLines(new StringReader(new String(cleanBytes, StandardCharsets.UTF_8))), parsedPatch);
+
+        StringBuilder content = new StringBuilder();
+        for (Object line : modifiedLines) {
+            content.append((String) line)
+                    .append('\n');
+        }
+
+        byte[] fileBytes = (System.lineSeparator().equals("\n") ? content.toString() :
+                content.toString().replace("\n", System.lineSeparator())).getBytes(StandardCharsets.UTF_8);
+        Files.write(t.toPath(), fileBytes);
+        ObjectId blobId = insertBlob(content.toString());
+
+        bytesWritten.addAndGet(fileBytes.length);
+        manifest.put(targetFile, new ManifestEntry(inputHash, blobId, t));
+        blobs.put(targetFile, blobId);
+        return true;
+    }
+
+    /**
+     * Stores a patched file in the repository, using line feeds just like git does when the working tree uses CRLF
+     */
+    @NotNull
+    private ObjectId insertBlob(@NotNull String content) throws IOException {
+        try (ObjectInserter inserter = repository.newObjectInserter()) {
+            ObjectId blobId = inserter.insert(Constants.OBJ_BLOB, content.replace("\r\n", "\n").getBytes(StandardCharsets.UTF_8));
+            inserter.flush();
+
+            return blobId;
+        }
+    }
+
+    private void removeStaleFiles(@NotNull Set<String> targetFiles) throws IOException {
+        File nmsRoot = new File(srcDir, "net");
+
+        if (!nmsRoot.isDirectory()) {
+            return;
+        }
+
+        List<Path> staleFiles;
+        try (Stream<Path> stream = Files.walk(nmsRoot.toPath())) {
+            staleFiles = stream
+                    .filter(Files::isRegularFile)
+                    .filter(path -> !targetFiles.contains(getRelativePath(path)))
+                    .collect(Collectors.toList());
+        }
+
+        for (Path path : staleFiles) {
+            String relPath = getRelativePath(path);
+            ManifestEntry entry = manifest.remove(relPath);
+
+            if (entry != null && entry.matchesOutput(path.toFile())) {
+                Files.delete(path);
+            } else {
+                backupFile(relPath);
+            }
+        }
+    }
+
+    private void backupFile(@NotNull String relPath) throws IOException {
+        File target = new File(backupDir, relPath);
+
+        synchronized (this) {
+            if (!backupDirCreated) {
+                System.out.println("Backing up modified NMS files to '" + backupDir + "'");
+                backupDirCreated = true;
+            }
+        }
+
+        Files.createDirectories(target.getParentFile().toPath());
+        Files.move(new File(srcDir, relPath).toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @NotNull
+    private String getRelativePath(@NotNull Path path) {
+        return srcDir.toPath().relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    private void loadManifest() {
+        manifest.clear();
+
+        if (!manifestFile.isFile()) {
+            return;
+        }
+
+        try (Reader reader = Files.newBufferedReader(manifestFile.toPath(), StandardCharsets.UTF_8)) {
+            Map<String, ManifestEntry> entries = GSON.fromJson(reader, MANIFEST_TYPE);
+
+            if (entries != null) {
+                entries.forEach((key, entry) -> {
+                    if (key != null && entry != null && entry.inputHash != null) {
+                        manifest.put(key, entry);
+                    }
+                });
+            }
+        } catch (IOException | JsonParseException ex) {
+            System.err.println("Could not read patch manifest '" + manifestFile + "', ignoring it (" + ex.getMessage() + ")");
+        }
+    }
+
+    private void saveManifest() throws IOException {
+        Utils.writeAtomically(manifestFile, writer -> GSON.toJson(new TreeMap<>(manifest), MANIFEST_TYPE, writer));
+    }
+
+    private static class ManifestEntry {
+        private final String inputHash;
+        private final String blobId;
+        private final long outputSize;
+        private final long outputLastModified;
+
+        private ManifestEntry(String inputHash, ObjectId blobId, File output) {
+            this.inputHash = inputHash;
+            this.blobId = blobId.getName();
+            this.outputSize = output.length();
+            this.outputLastModified = output.lastModified();
+        }
+
+        private boolean matchesOutput(File output) {
+            return output.isFile() && output.length() == outputSize && output.lastModified() == outputLastModified;
+        }
+    }
+}
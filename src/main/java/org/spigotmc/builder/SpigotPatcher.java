@@ -0,0 +1,375 @@
+package org.spigotmc.builder;
+
+import org.eclipse.jgit.api.AddCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.api.RmCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.patch.FileHeader;
+import org.eclipse.jgit.patch.FormatError;
+import org.eclipse.jgit.patch.Patch;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Applies a series of patches created using {@code git format-patch} (e.g. {@code Spigot/CraftBukkit-Patches}) to a repository,
+ * committing every patch with its author, date and message, just like {@code git am} does
+ * <p>
+ * The hash of the inputs (the base commit and the patches) and the tree of the resulting commit are recorded in the config
+ * of the repository. If neither of them changed and there are no uncommitted changes, the series is not applied again.
+ * <p>
+ * Patches have to apply exactly. Unlike {@code git am --3way --ignore-whitespace}, there is no fallback to a three-way merge.
+ */
+public class SpigotPatcher {
+    private static final String CONFIG_SECTION = "buildtools";
+    private static final String CONFIG_SUBSECTION = "patches";
+    private static final String TARGET_BRANCH = "master";
+
+    private static final Pattern ENCODED_WORD = Pattern.compile("=\\?([^?]+)\\?([bBqQ])\\?([^?]*)\\?=");
+    private static final Pattern WHITESPACE_BETWEEN_ENCODED_WORDS = Pattern.compile("(\\?=)\\s+(=\\?)");
+    private static final Pattern SUBJECT_PREFIX = Pattern.compile("^(\\[[^]]*]\\s*)+");
+
+    private final Git git;
+    private final File patchDir;
+
+    /**
+     * @param git      The repository to apply the patches to (e.g. {@code Spigot/Spigot-Server})
+     * @param patchDir The directory containing the {@code .patch} files
+     */
+    public SpigotPatcher(@NotNull Git git, @NotNull File patchDir) {
+        this.git = git;
+        this.patchDir = patchDir;
+    }
+
+    /**
+     * Resets the branch {@value #TARGET_BRANCH} to the given commit and applies all the patches on top of it
+     *
+     * @param base The commit to apply the patches to
+     *
+     * @return {@code true} if the patches have been applied, {@code false} if they already were
+     *
+     * @throws BuilderException If a patch could not be parsed or applied
+     */
+    public boolean applyPatches(@NotNull ObjectId base) throws BuilderException, IOException, GitAPIException {
+        List<File> patches = getPatchFiles();
+        String inputHash = getInputHash(base, patches);
+
+        if (isUpToDate(inputHash)) {
+            System.out.println("The " + patches.size() + " patches are already applied");
+            return false;
+        }
+
+        resetTo(base);
+
+        for (File patchFile : patches) {
+            try {
+                applyPatch(patchFile);
+            } catch (BuilderException | IOException | GitAPIException ex) {
+                throw new BuilderException("Could not apply '" + patchFile.getName() + "' (" + ex.getMessage() + ")", ex);
+            }
+        }
+
+        recordApplied(inputHash);
+        System.out.println("Applied " + patches.size() + " patches");
+
+        return true;
+    }
+
+    /**
+     * Records the current commit as the result of applying the patches to the given commit (e.g. after running {@code applyPatches.sh})
+     */
+    public void markApplied(@NotNull ObjectId base) throws BuilderException, IOException {
+        recordApplied(getInputHash(base, getPatchFiles()));
+    }
+
+    private boolean isUpToDate(@NotNull String inputHash) throws IOException, GitAPIException {
+        Repository repo = git.getRepository();
+        StoredConfig config = repo.getConfig();
+
+        if (!inputHash.equals(config.getString(CONFIG_SECTION, CONFIG_SUBSECTION, "inputHash")) ||
+                !TARGET_BRANCH.equals(repo.getBranch())) {
+            return false;
+        }
+
+        ObjectId head = repo.resolve(Constants.HEAD);
+        if (head == null) {
+            return false;
+        }
+
+        try (RevWalk revWalk = new RevWalk(repo)) {
+            String tree = revWalk.parseCommit(head).getTree().getName();
+
+            if (!tree.equals(config.getString(CONFIG_SECTION, CONFIG_SUBSECTION, "tree"))) {
+                return false;
+            }
+        }
+
+        return !git.status().call().hasUncommittedChanges();
+    }
+
+    private void recordApplied(@NotNull String inputHash) throws IOException {
+        Repository repo = git.getRepository();
+        ObjectId head = repo.resolve(Constants.HEAD);
+
+        if (head == null) {
+            return;
+        }
+
+        try (RevWalk revWalk = new RevWalk(repo)) {
+            StoredConfig config = repo.getConfig();
+            config.setString(CONFIG_SECTION, CONFIG_SUBSECTION, "inputHash", inputHash);
+            config.setString(CONFIG_SECTION, CONFIG_SUBSECTION, "tree", revWalk.parseCommit(head).getTree().getName());
+            config.save();
+        }
+    }
+
+    private void resetTo(@NotNull ObjectId base) throws IOException, GitAPIException {
+        Repository repo = git.getRepository();
+
+        if (!TARGET_BRANCH.equals(repo.getBranch())) {
+            boolean branchExists = repo.findRef(Constants.R_HEADS + TARGET_BRANCH) != null;
+
+            git.checkout()
+                    .setName(TARGET_BRANCH)
+                    .setCreateBranch(!branchExists)
+                    .setStartPoint(base.getName())
+                    .setForced(true)
+                    .call();
+        }
+
+        git.reset().setMode(ResetCommand.ResetType.HARD).setRef(base.getName()).call();
+    }
+
+    private void applyPatch(@NotNull File patchFile) throws BuilderException, IOException, GitAPIException {
+        byte[] content = Files.readAllBytes(patchFile.toPath());
+
+        Patch patch = new Patch();
+        patch.parse(content, 0, content.length);
+
+        for (FormatError error : patch.getErrors()) {
+            if (error.getSeverity() == FormatError.Severity.ERROR) {
+                throw new BuilderException(error.getMessage());
+            }
+        }
+
+        MailHeader header = MailHeader.parse(new String(content, StandardCharsets.UTF_8));
+
+        git.apply().setPatch(new ByteArrayInputStream(content)).call();
+
+        AddCommand add = git.add();
+        RmCommand rm = git.rm().setCached(true);
+        boolean hasAdditions = false;
+        boolean hasRemovals = false;
+
+        for (FileHeader file : patch.getFiles()) {
+            switch (file.getChangeType()) {
+                case DELETE:
+                    rm.addFilepattern(file.getOldPath());
+                    hasRemovals = true;
+                    break;
+                case RENAME:
+                    rm.addFilepattern(file.getOldPath());
+                    add.addFilepattern(file.getNewPath());
+                    hasRemovals = true;
+                    hasAdditions = true;
+                    break;
+                default:
+                    add.addFilepattern(file.getNewPath());
+                    hasAdditions = true;
+                    break;
+            }
+        }
+
+        if (hasAdditions) {
+            add.call();
+        }
+
+        if (hasRemovals) {
+            rm.call();
+        }
+
+        git.commit()
+                .setSign(false)
+                .setAuthor(header.author)
+                .setMessage(header.message)
+                .call();
+    }
+
+    @NotNull
+    private List<File> getPatchFiles() throws BuilderException {
+        File[] files = patchDir.listFiles((dir, name) -> name.endsWith(".patch"));
+
+        if (files == null) {
+            throw new BuilderException("Could not find the patches inside '" + patchDir + "'");
+        }
+
+        List<File> result = new ArrayList<>(Arrays.asList(files));
+        result.sort(Comparator.comparing(File::getName));
+
+        return result;
+    }
+
+    @NotNull
+    private static String getInputHash(@NotNull ObjectId base, @NotNull List<File> patches) throws IOException {
+        Hasher hasher = new Hasher(HashAlgo.SHA256).update(base.getName());
+
+        for (File patchFile : patches) {
+            hasher.update(patchFile.getName())
+                    .update(patchFile);
+        }
+
+        return hasher.getHash(HashAlgo.SHA256);
+    }
+
+    /**
+     * The author and commit message of a patch created using {@code git format-patch}
+     */
+    private static class MailHeader {
+        private final PersonIdent author;
+        private final String message;
+
+        private MailHeader(@NotNull PersonIdent author, @NotNull String message) {
+            this.author = author;
+            this.message = message;
+        }
+
+        @NotNull
+        private static MailHeader parse(@NotNull String mail) throws BuilderException {
+            String[] lines = mail.replace("\r\n", "\n").split("\n", -1);
+            Map<String, String> headers = new HashMap<>();
+
+            int i = lines.length > 0 && lines[0].startsWith("From ") ? 1 : 0;
+            String lastHeader = null;
+
+            for (; i < lines.length && !lines[i].isEmpty(); ++i) {
+                String line = lines[i];
+
+                if ((line.startsWith(" ") || line.startsWith("\t")) && lastHeader != null) {
+                    headers.put(lastHeader, headers.get(lastHeader) + ' ' + line.trim());
+                } else if (line.indexOf(':') > 0) {
+                    lastHeader = line.substring(0, line.indexOf(':')).trim().toLowerCase(Locale.ROOT);
+                    headers.put(lastHeader, line.substring(line.indexOf(':') + 1).trim());
+                }
+            }
+
+            List<String> body = new ArrayList<>();
+            for (++i; i < lines.length && !lines[i].equals("---") && !lines[i].startsWith("diff --git "); ++i) {
+                body.add(lines[i]);
+            }
+
+            while (!body.isEmpty() && body.get(0).trim().isEmpty()) {
+                body.remove(0);
+            }
+            while (!body.isEmpty() && body.get(body.size() - 1).trim().isEmpty()) {
+                body.remove(body.size() - 1);
+            }
+
+            String from = headers.get("from");
+            if (from == null) {
+                throw new BuilderException("The patch has no author");
+            }
+
+            String subject = SUBJECT_PREFIX.matcher(decode(headers.getOrDefault("subject", ""))).replaceFirst("");
+            String message = subject + (body.isEmpty() ? "" : "\n\n" + String.join("\n", body)) + '\n';
+
+            return new MailHeader(parseAuthor(decode(from), headers.get("date")), message);
+        }
+
+        @NotNull
+        private static PersonIdent parseAuthor(@NotNull String from, @Nullable String date) throws BuilderException {
+            int emailStart = from.lastIndexOf('<');
+            int emailEnd = from.lastIndexOf('>');
+
+            String name = emailStart >= 0 ? from.substring(0, emailStart).trim() : from.trim();
+            String email = emailStart >= 0 && emailEnd > emailStart ? from.substring(emailStart + 1, emailEnd).trim() : "";
+
+            if (name.length() >= 2 && name.startsWith("\"") && name.endsWith("\"")) {
+                name = name.substring(1, name.length() - 1);
+            }
+
+            if (date == null) {
+                throw new BuilderException("The patch has no date");
+            }
+
+            try {
+                long when = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss Z", Locale.ENGLISH).parse(date).getTime();
+                String offset = date.substring(date.lastIndexOf(' ') + 1);
+                int tzMinutes = Integer.parseInt(offset.substring(1, 3)) * 60 + Integer.parseInt(offset.substring(3, 5));
+
+                return new PersonIdent(name, email, when, offset.startsWith("-") ? -tzMinutes : tzMinutes);
+            } catch (ParseException | IndexOutOfBoundsException | NumberFormatException ex) {
+                throw new BuilderException("The patch has an invalid date '" + date + "'", ex);
+            }
+        }
+
+        /**
+         * Decodes the encoded words (RFC 2047) inside a header, like {@code =?UTF-8?q?Ey=C3=B3lfur?=}
+         */
+        @NotNull
+        private static String decode(@NotNull String header) {
+            Matcher matcher = ENCODED_WORD.matcher(WHITESPACE_BETWEEN_ENCODED_WORDS.matcher(header).replaceAll("$1$2"));
+            StringBuffer result = new StringBuffer();
+
+            while (matcher.find()) {
+                String decoded;
+
+                try {
+                    Charset charset = Charset.forName(matcher.group(1));
+                    String text = matcher.group(3);
+
+                    if (matcher.group(2).equalsIgnoreCase("b")) {
+                        decoded = new String(Base64.getDecoder().decode(text), charset);
+                    } else {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+                        for (int i = 0; i < text.length(); ++i) {
+                            char c = text.charAt(i);
+
+                            if (c == '=' && i + 2 < text.length()) {
+                                bytes.write(Integer.parseInt(text.substring(i + 1, i + 3), 16));
+                                i += 2;
+                            } else {
+                                bytes.write(c == '_' ? ' ' : c);
+                            }
+                        }
+
+                        decoded = new String(bytes.toByteArray(), charset);
+                    }
+                } catch (IllegalArgumentException ex) {
+                    decoded = matcher.group();
+                }
+
+                matcher.appendReplacement(result, Matcher.quoteReplacement(decoded));
+            }
+
+            matcher.appendTail(result);
+            return result.toString();
+        }
+    }
+}
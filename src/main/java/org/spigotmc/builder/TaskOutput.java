@@ -0,0 +1,427 @@
+package org.spigotmc.builder;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Separates the console output of tasks that run at the same time (e.g. build stages)
+ * <p>
+ * Once installed, {@link System#out} and {@link System#err} are replaced by streams that pass everything on to a single
+ * writer thread, so printing never has to wait for the console or the log file.
+ * Output of a thread that is inside a {@link Channel} (including child processes started using {@link Utils#runCommand(File, String, String...)})
+ * is collected line by line and every line is prefixed with the name of the channel.
+ * Channels can additionally write their output into their own file (see {@link #setTaskLogDir(File)}).
+ * <p>
+ * The writer thread only accepts a limited amount of output. If it falls behind that far, printing blocks until it caught up.
+ */
+public class TaskOutput {
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private static final ThreadLocal<Channel> CURRENT_CHANNEL = new ThreadLocal<>();
+
+    private static volatile ConsoleWriter consoleWriter;
+    private static volatile File taskLogDir;
+
+    private TaskOutput() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Replaces {@link System#out} and {@link System#err} with streams that are written asynchronously to the current ones
+     */
+    public static synchronized void install() throws UnsupportedEncodingException {
+        if (consoleWriter != null) {
+            return;
+        }
+
+        consoleWriter = new ConsoleWriter(System.out, System.err);
+
+        System.setOut(new PrintStream(new DemuxOutputStream(false), true, StandardCharsets.UTF_8.name()));
+        System.setErr(new PrintStream(new DemuxOutputStream(true), true, StandardCharsets.UTF_8.name()));
+    }
+
+    /**
+     * Blocks until everything that has been printed so far has been written
+     */
+    public static void flush() {
+        ConsoleWriter writer = consoleWriter;
+
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    /**
+     * @param dir The directory every channel writes its own log file into or {@code null} to not write them
+     */
+    public static void setTaskLogDir(@Nullable File dir) {
+        taskLogDir = dir;
+    }
+
+    /**
+     * Opens a new channel and makes it the current one of the calling thread until it is closed
+     *
+     * @param name   The name every line is prefixed with
+     * @param parent The channel this one is part of, even if it belongs to another thread (its name is added in front of {@code name})
+     *
+     * @return The new channel that should be closed using try-with-resources
+     */
+    @NotNull
+    public static Channel openChannel(@NotNull String name, @Nullable Channel parent) {
+        Channel channel = new Channel(parent != null ? parent.name + '/' + name : name, CURRENT_CHANNEL.get(), null);
+        CURRENT_CHANNEL.set(channel);
+
+        return channel;
+    }
+
+    /**
+     * Opens a new channel that is part of the current channel of the calling thread
+     *
+     * @see #openChannel(String, Channel)
+     */
+    @NotNull
+    public static Channel openChannel(@NotNull String name) {
+        return openChannel(name, CURRENT_CHANNEL.get());
+    }
+
+    /**
+     * Opens a channel with the same name and log file as the given one, that collects its own lines,
+     * and makes it the current one of the calling thread until it is closed
+     * <p>
+     * This lets worker threads (and the child processes they start) print through the channel of the thread
+     * that handed them their work, without their output being joined mid-line.
+     *
+     * @param channel The channel to fork (e.g. from {@link #getCurrentChannel()} of another thread)
+     *
+     * @return The new channel that should be closed using try-with-resources or {@code null} if {@code channel} is {@code null}
+     */
+    @Nullable
+    public static Channel forkChannel(@Nullable Channel channel) {
+        if (channel == null) {
+            return null;
+        }
+
+        Channel fork = new Channel(channel.name, CURRENT_CHANNEL.get(), channel.logChannel);
+        CURRENT_CHANNEL.set(fork);
+
+        return fork;
+    }
+
+    private static void setCurrentChannel(@Nullable Channel channel) {
+        if (channel != null) {
+            CURRENT_CHANNEL.set(channel);
+        } else {
+            CURRENT_CHANNEL.remove();
+        }
+    }
+
+    /**
+     * @return The channel the calling thread is currently in
+     */
+    @Nullable
+    public static Channel getCurrentChannel() {
+        return CURRENT_CHANNEL.get();
+    }
+
+    /**
+     * @return The stream the standard output of a child process started by the calling thread should be written to
+     */
+    @NotNull
+    public static OutputStream getOut() {
+        Channel channel = CURRENT_CHANNEL.get();
+        return channel != null ? channel.out : System.out;
+    }
+
+    /**
+     * @return The stream the error output of a child process started by the calling thread should be written to
+     */
+    @NotNull
+    public static OutputStream getErr() {
+        Channel channel = CURRENT_CHANNEL.get();
+        return channel != null ? channel.err : System.err;
+    }
+
+    private static void writeToConsole(boolean isErr, @NotNull byte[] bytes) {
+        ConsoleWriter writer = consoleWriter;
+
+        if (writer != null) {
+            writer.write(isErr, bytes);
+        } else {
+            PrintStream target = isErr ? System.err : System.out;
+            target.write(bytes, 0, bytes.length);
+            target.flush();
+        }
+    }
+
+    public static class Channel implements AutoCloseable {
+        private final String name;
+        private final Channel previousChannel;
+        private final Channel logChannel;
+        private final byte[] prefix;
+
+        private final LineOutputStream out = new LineOutputStream(false);
+        private final LineOutputStream err = new LineOutputStream(true);
+
+        private OutputStream logOut;
+        private boolean logFailed;
+
+        /**
+         * @param logChannel The channel that owns the log file this channel writes to, {@code null} if this channel owns it
+         */
+        private Channel(@NotNull String name, @Nullable Channel previousChannel, @Nullable Channel logChannel) {
+            this.name = name;
+            this.previousChannel = previousChannel;
+            this.logChannel = logChannel != null ? logChannel : this;
+            this.prefix = ("[" + name + "] ").getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Writes a line (without its line separator) to the console and the log
+         */
+        private void writeLine(boolean isErr, @NotNull byte[] line, int offset, int length) {
+            if (length > 0 && line[offset + length - 1] == '\r') {
+                --length;
+            }
+
+            byte[] bytes = new byte[prefix.length + length + LINE_SEPARATOR.length];
+            System.arraycopy(prefix, 0, bytes, 0, prefix.length);
+            System.arraycopy(line, offset, bytes, prefix.length, length);
+            System.arraycopy(LINE_SEPARATOR, 0, bytes, prefix.length + length, LINE_SEPARATOR.length);
+
+            writeToConsole(isErr, bytes);
+            logChannel.writeToLog(bytes, prefix.length, length);
+        }
+
+        private synchronized void writeToLog(@NotNull byte[] line, int offset, int length) {
+            File logDir = taskLogDir;
+
+            if (logDir == null || logFailed) {
+                return;
+            }
+
+            try {
+                if (logOut == null) {
+                    logOut = new BufferedOutputStream(new FileOutputStream(new File(logDir, name.replaceAll("[^A-Za-z0-9._-]", "_") + ".log")));
+                }
+
+                logOut.write(line, offset, length);
+                logOut.write(LINE_SEPARATOR);
+            } catch (IOException ex) {
+                logFailed = true;
+                writeToConsole(true, ("Could not write the log of '" + name + "' (" + ex.getMessage() + ")").getBytes(StandardCharsets.UTF_8));
+                writeToConsole(true, LINE_SEPARATOR);
+            }
+        }
+
+        @Override
+        public void close() {
+            out.flush();
+            err.flush();
+
+            synchronized (this) {
+                if (logOut != null) {
+                    try {
+                        logOut.close();
+                    } catch (IOException ignore) {
+                    }
+
+                    logOut = null;
+                }
+            }
+
+            if (CURRENT_CHANNEL.get() == this) {
+                setCurrentChannel(previousChannel);
+            }
+        }
+
+        /**
+         * Collects the bytes written to it until a line is complete
+         * <p>
+         * Complete lines are passed on straight from the written array, only the start of an incomplete line is buffered.
+         */
+        private class LineOutputStream extends OutputStream {
+            private final boolean isErr;
+            private byte[] buffer = new byte[128];
+            private int count;
+
+            private LineOutputStream(boolean isErr) {
+                this.isErr = isErr;
+            }
+
+            @Override
+            public void write(int b) {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public synchronized void write(@NotNull byte[] b, int off, int len) {
+                int end = off + len;
+                int lineStart = off;
+
+                for (int i = off; i < end; ++i) {
+                    if (b[i] == '\n') {
+                        if (count == 0) {
+                            writeLine(isErr, b, lineStart, i - lineStart);
+                        } else {
+                            append(b, lineStart, i - lineStart);
+                            writeBufferedLine();
+                        }
+
+                        lineStart = i + 1;
+                    } else if (count + i + 1 - lineStart >= MAX_LINE_LENGTH) {
+                        append(b, lineStart, i + 1 - lineStart);
+                        writeBufferedLine();
+
+                        lineStart = i + 1;
+                    }
+                }
+
+                append(b, lineStart, end - lineStart);
+            }
+
+            @Override
+            public synchronized void flush() {
+                if (count > 0) {
+                    writeBufferedLine();
+                }
+            }
+
+            private void append(@NotNull byte[] b, int off, int len) {
+                if (count + len > buffer.length) {
+                    buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, count + len));
+                }
+
+                System.arraycopy(b, off, buffer, count, len);
+                count += len;
+            }
+
+            private void writeBufferedLine() {
+                writeLine(isErr, buffer, 0, count);
+                count = 0;
+            }
+        }
+    }
+
+    /**
+     * The stream installed as {@link System#out} or {@link System#err}, that passes the output
+     * on to the channel of the calling thread or directly to the console writer
+     */
+    private static class DemuxOutputStream extends OutputStream {
+        private final boolean isErr;
+
+        private DemuxOutputStream(boolean isErr) {
+            this.isErr = isErr;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(@NotNull byte[] b, int off, int len) {
+            Channel channel = CURRENT_CHANNEL.get();
+
+            if (channel != null) {
+                (isErr ? channel.err : channel.out).write(b, off, len);
+            } else {
+                writeToConsole(isErr, Arrays.copyOfRange(b, off, off + len));
+            }
+        }
+    }
+
+    private static class ConsoleWriter implements Runnable {
+        private final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final PrintStream out;
+        private final PrintStream err;
+
+        private ConsoleWriter(@NotNull PrintStream out, @NotNull PrintStream err) {
+            this.out = out;
+            this.err = err;
+
+            Thread thread = new Thread(this, "BuildTools-Console");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void write(boolean isErr, @NotNull byte[] bytes) {
+            put(new Chunk(isErr, bytes, null));
+        }
+
+        private void flush() {
+            CountDownLatch latch = new CountDownLatch(1);
+
+            if (put(new Chunk(false, null, latch))) {
+                try {
+                    latch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private boolean put(@NotNull Chunk chunk) {
+            try {
+                queue.put(chunk);
+                return true;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Chunk chunk;
+                try {
+                    chunk = queue.take();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+
+                if (chunk.bytes != null) {
+                    (chunk.isErr ? err : out).write(chunk.bytes, 0, chunk.bytes.length);
+                }
+
+                // Only flush once there is nothing left to write, so a burst of output results in a few large writes
+                if (chunk.latch != null || queue.isEmpty()) {
+                    out.flush();
+                    err.flush();
+                }
+
+                if (chunk.latch != null) {
+                    chunk.latch.countDown();
+                }
+            }
+        }
+    }
+
+    private static class Chunk {
+        private final boolean isErr;
+        private final byte[] bytes;
+        private final CountDownLatch latch;
+
+        private Chunk(boolean isErr, @Nullable byte[] bytes, @Nullable CountDownLatch latch) {
+            this.isErr = isErr;
+            this.bytes = bytes;
+            this.latch = latch;
+        }
+    }
+}
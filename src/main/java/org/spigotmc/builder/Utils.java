@@ -7,9 +7,12 @@ import org.apache.commons.io.IOUtils;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.ResetCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.api.errors.JGitInternalException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.treewalk.TreeWalk;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -20,28 +23,40 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Writer;
 import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -49,13 +64,22 @@ import java.util.zip.ZipFile;
 public class Utils {
     private static final byte[] HEX_ARRAY = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
 
+    private static final int DOWNLOAD_ATTEMPTS = 5;
+    private static final int DOWNLOAD_BUFFER_SIZE = 64 * 1024;
+
+    private static final int EXTRACT_BUFFER_SIZE = 64 * 1024;
+    private static final int EXTRACT_MIN_ENTRIES_PER_THREAD = 64;
+
     public static String httpGet(@NotNull String url) throws IOException {
         URLConnection con = new URL(url).openConnection();
         con.setConnectTimeout(5000);
         con.setReadTimeout(5000);
 
         try (InputStream in = con.getInputStream()) {
-            return IOUtils.toString(in, StandardCharsets.UTF_8);
+            byte[] body = IOUtils.toByteArray(in);
+            BuildReport.addBytesDownloaded(body.length);
+
+            return new String(body, StandardCharsets.UTF_8);
         }
     }
 
@@ -66,10 +90,50 @@ public class Utils {
 
         System.out.println("Downloading '" + url + "' to '" + dest.toString() + "'...");
 
-        byte[] data = IOUtils.toByteArray(new URL(url));
-        String dataHash = hashAlgo != null ? hashAlgo.getHash(data) : null;
+        File destDir = dest.getAbsoluteFile().getParentFile();
+        File tmpFile = new File(destDir, dest.getName() + ".part");
+        Files.createDirectories(destDir.toPath());
+
+        // A partial download left behind by a previous run can only be trusted if we are able to verify the result
+        if (hashAlgo == null) {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+
+        byte[] buffer = new byte[DOWNLOAD_BUFFER_SIZE];
+        Hasher hasher = hashAlgo != null ? new Hasher(hashAlgo) : null;
+
+        if (hasher != null && tmpFile.isFile()) {
+            hasher.update(tmpFile);
+        }
+
+        for (int attempt = 1; ; ++attempt) {
+            try {
+                downloadToFile(url, tmpFile, hasher, buffer);
+                break;
+            } catch (FileNotFoundException ex) {
+                throw ex;   // The server told us the file does not exist, retrying won't change that
+            } catch (IOException ex) {
+                if (attempt >= DOWNLOAD_ATTEMPTS) {
+                    throw ex;
+                }
+
+                System.err.println("Download of '" + url + "' has been interrupted (" + ex.getMessage() + "), " +
+                        "resuming at byte " + (tmpFile.isFile() ? tmpFile.length() : 0) + "...");
+
+                try {
+                    Thread.sleep(1000L * attempt);
+                } catch (InterruptedException ex2) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
+        }
+
+        String dataHash = hasher != null ? hasher.getHash(hashAlgo) : null;
 
         if (dataHash != null && !dataHash.equalsIgnoreCase(goodHash)) {
+            Files.deleteIfExists(tmpFile.toPath());
+
             throw new IllegalStateException("File at '" + url + "' did not match the expected " + hashAlgo.getAlgorithm()
                     + " (Expected: " + goodHash + ")");
         }
@@ -77,49 +141,228 @@ public class Utils {
         System.out.println("Successfully downloaded '" + url + "'" +
                 (hashAlgo != null ? " (" + hashAlgo.getAlgorithm() + ": " + dataHash + ")" : ""));
 
-        Files.createDirectories(dest.getParentFile().toPath());
-        try (FileOutputStream out = new FileOutputStream(dest)) {
-            IOUtils.write(data, out);
+        moveReplacing(tmpFile.toPath(), dest.toPath());
+    }
+
+    /**
+     * Moves a file, replacing the target if it exists
+     * <p>
+     * The move is atomic if the file system supports it, so the target is either the old or the new file, even if BuildTools is killed.
+     */
+    public static void moveReplacing(@NotNull Path source, @NotNull Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Writes a text file (UTF-8) into {@code <file>.tmp} first and replaces the file once everything has been written
+     * (see {@link #moveReplacing(Path, Path)}), so an interrupted write never leaves a truncated file behind
+     *
+     * @param file   The file to write
+     * @param action Writes the content
+     */
+    public static void writeAtomically(@NotNull File file, @NotNull IOConsumer<Writer> action) throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+
+        try (Writer writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+            action.accept(writer);
         }
+
+        moveReplacing(tmpFile.toPath(), file.toPath());
     }
 
-    public static void extractZip(@NotNull File zipFile, @NotNull File targetFolder, @Nullable Predicate<String> filter) throws IOException {
+    /**
+     * Streams the content at {@code url} into {@code target}, resuming at the end of {@code target}
+     * using an HTTP Range request if the file already exists
+     * <p>
+     * If the server does not support resuming, {@code target} is truncated and {@code hasher} gets reset.
+     *
+     * @param url    The URL to download from
+     * @param target The file to write the downloaded bytes to
+     * @param hasher An optional hasher that has already been updated with the existing content of {@code target}
+     * @param buffer The buffer to use for copying
+     */
+    private static void downloadToFile(@NotNull String url, @NotNull File target, @Nullable Hasher hasher, byte[] buffer) throws IOException {
+        long offset = target.isFile() ? target.length() : 0;
+
+        URLConnection con = new URL(url).openConnection();
+        con.setConnectTimeout(15_000);
+        con.setReadTimeout(30_000);
+
+        if (offset > 0) {
+            con.setRequestProperty("Range", "bytes=" + offset + "-");
+        }
+
+        boolean append = false;
+        if (offset > 0 && con instanceof HttpURLConnection) {
+            int responseCode = ((HttpURLConnection) con).getResponseCode();
+
+            if (responseCode == 416) {  // Range Not Satisfiable - We already got the whole file
+                ((HttpURLConnection) con).disconnect();
+                return;
+            }
+
+            append = responseCode == HttpURLConnection.HTTP_PARTIAL;
+        }
+
+        if (!append && hasher != null) {
+            hasher.reset();
+        }
+
+        long transferred = 0;
+
+        try (InputStream in = con.getInputStream();
+             OutputStream out = new FileOutputStream(target, append)) {
+            for (int len; (len = in.read(buffer)) != -1; ) {
+                out.write(buffer, 0, len);
+                transferred += len;
+
+                if (hasher != null) {
+                    hasher.update(buffer, 0, len);
+                }
+            }
+        } finally {
+            BuildReport.addBytesDownloaded(transferred);
+            BuildReport.addBytesWritten(transferred);
+        }
+    }
+
+    /**
+     * Extracts the given zip file into {@code targetFolder}
+     * <p>
+     * All the needed directories are created up front and the files are written in parallel,
+     * using one {@link ZipFile} and one copy buffer per thread.
+     *
+     * @param zipFile      The zip file to extract
+     * @param targetFolder The directory to extract into
+     * @param filter       Optional filter that is called with the entry name and returns true if the entry should be extracted
+     *
+     * @return The amount of bytes written
+     *
+     * @throws IOException           If reading the zip or writing the files fails
+     * @throws IllegalStateException If the zip contains an entry that would be extracted outside of {@code targetFolder}
+     */
+    public static long extractZip(@NotNull File zipFile, @NotNull File targetFolder, @Nullable Predicate<String> filter) throws IOException {
         System.out.println("Extracting '" + zipFile.getAbsolutePath() + "' to '" + targetFolder.getAbsolutePath() + "'...");
 
-        Path targetPath = targetFolder.getAbsoluteFile().toPath().normalize();
-        Files.createDirectories(targetPath);
+        Files.createDirectories(targetFolder.toPath());
+
+        return extractZip0(zipFile, entryName -> filter == null || filter.test(entryName) ? targetFolder : null);
+    }
+
+    /**
+     * Extracts the entries of the given zip file into different directories, reading the zip only once
+     *
+     * @param zipFile     The zip file to extract
+     * @param destination Called with the entry name and returns the directory to extract the entry into or {@code null} to skip it
+     *
+     * @return The amount of bytes written
+     *
+     * @throws IOException           If reading the zip or writing the files fails
+     * @throws IllegalStateException If the zip contains an entry that would be extracted outside of its directory
+     * @see #extractZip(File, File, Predicate)
+     */
+    public static long extractZip(@NotNull File zipFile, @NotNull Function<String, File> destination) throws IOException {
+        System.out.println("Extracting '" + zipFile.getAbsolutePath() + "'...");
+
+        return extractZip0(zipFile, destination);
+    }
+
+    private static long extractZip0(@NotNull File zipFile, @NotNull Function<String, File> destination) throws IOException {
+        final long start = System.nanoTime();
+
+        List<String> fileEntries = new ArrayList<>();
+        List<Path> fileTargets = new ArrayList<>();
+        Set<Path> directories = new TreeSet<>();
+        Map<File, Path> targetPaths = new HashMap<>();
 
         try (ZipFile zip = new ZipFile(zipFile)) {
             for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
                 ZipEntry entry = entries.nextElement();
+                File targetFolder = destination.apply(entry.getName());
 
-                if (filter != null && !filter.test(entry.getName())) {
+                if (targetFolder == null) {
                     continue;
                 }
 
-                File outFile = targetPath.resolve(entry.getName()).toFile();
+                Path targetPath = targetPaths.computeIfAbsent(targetFolder, folder -> folder.getAbsoluteFile().toPath().normalize());
+                Path outFile = targetPath.resolve(entry.getName()).normalize();
 
-                if (!outFile.toPath().normalize().startsWith(targetPath))
+                if (!outFile.startsWith(targetPath))
                     throw new IllegalStateException("Bad zip entry(=" + entry.getName() + ") - malicious archive?");  // e.g. containing '..'
 
                 if (entry.isDirectory()) {
-                    Files.createDirectories(outFile.toPath());
+                    directories.add(outFile);
+                } else {
+                    fileEntries.add(entry.getName());
+                    fileTargets.add(outFile);
 
-                    continue;
+                    if (outFile.getParent() != null) {
+                        directories.add(outFile.getParent());
+                    }
                 }
+            }
+        }
 
-                if (outFile.getParentFile() != null) {
-                    Files.createDirectories(outFile.getParentFile().toPath());
-                }
+        // The set is sorted, so parents are always created before their children
+        for (Path dir : directories) {
+            Files.createDirectories(dir);
+        }
 
-                try (InputStream is = zip.getInputStream(entry);
-                     OutputStream os = new FileOutputStream(outFile)) {
-                    IOUtils.copy(is, os);
-                }
+        AtomicLong bytesWritten = new AtomicLong();
+
+        if (!fileEntries.isEmpty()) {
+            int threadCount = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), fileEntries.size() / EXTRACT_MIN_ENTRIES_PER_THREAD));
+
+            MultiThreadedTask[] tasks = new MultiThreadedTask[threadCount];
+            for (int i = 0; i < threadCount; ++i) {
+                final int firstIndex = i;
+
+                tasks[i] = () -> {
+                    byte[] buffer = new byte[EXTRACT_BUFFER_SIZE];
+                    long written = 0;
+
+                    try (ZipFile zip = new ZipFile(zipFile)) {
+                        // Each thread takes every n-th entry, so big and small files get distributed evenly
+                        for (int j = firstIndex; j < fileEntries.size(); j += threadCount) {
+                            String entryName = fileEntries.get(j);
+
+                            try (InputStream is = zip.getInputStream(zip.getEntry(entryName));
+                                 OutputStream os = Files.newOutputStream(fileTargets.get(j))) {
+                                for (int len; (len = is.read(buffer)) != -1; ) {
+                                    os.write(buffer, 0, len);
+                                    written += len;
+                                }
+                            }
+                        }
+                    } finally {
+                        bytesWritten.addAndGet(written);
+                    }
 
-                System.out.println("Extracted " + targetPath.relativize(outFile.toPath()).toString());
+                    return 0;
+                };
+            }
+
+            try {
+                runTasksMultiThreaded(threadCount, tasks);
+            } catch (IOException | RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new IOException("Could not extract '" + zipFile.getAbsolutePath() + "'", ex);
             }
         }
+
+        System.out.println("Extracted " + fileEntries.size() + " files (" + (bytesWritten.get() >> 10) + " KiB) from '" +
+                zipFile.getName() + "' in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+
+        BuildReport.addBytesRead(zipFile.length());
+        BuildReport.addBytesWritten(bytesWritten.get());
+
+        return bytesWritten.get();
     }
 
     public static boolean doesCommandFail(@NotNull File workingDir, @NotNull String cmd, @Nullable String... args) {
@@ -142,7 +385,7 @@ public class Utils {
 
         DefaultExecutor executor = new DefaultExecutor();
         executor.setWorkingDirectory(workingDir);
-        executor.setStreamHandler(new PumpStreamHandler(System.out, System.err));
+        executor.setStreamHandler(new PumpStreamHandler(TaskOutput.getOut(), TaskOutput.getErr()));
 
         Map<String, String> env = new HashMap<>(System.getenv());
 
@@ -185,6 +428,8 @@ public class Utils {
      * <p>
      * If a task throws an {@link Exception}, this method will throw it
      * after all the other tasks finished (only from the last task throwing one!).
+     * <p>
+     * The tasks print through the {@link TaskOutput.Channel} of the calling thread, every task collecting its own lines.
      *
      * @param threadCount The amount of threads to use for this task (uses {@code Math.min(threadCount, tasks.length)})
      * @param tasks       The tasks to be executed
@@ -194,6 +439,7 @@ public class Utils {
      * @throws Exception             The Exception thrown by the last last task throwing one
      * @throws IllegalStateException If {@code tasks.length == 0}
      */
+    @SuppressWarnings("try")
     public static int runTasksMultiThreaded(int threadCount, MultiThreadedTask... tasks) throws Exception {
         if (threadCount <= 0) throw new IllegalArgumentException("threadCount needs to be larger than 0");
         if (tasks.length == 0) throw new IllegalArgumentException("You have to provide tasks to execute");
@@ -202,10 +448,11 @@ public class Utils {
 
         AtomicInteger statusCode = new AtomicInteger();
         AtomicReference<Exception> exception = new AtomicReference<>();
+        TaskOutput.Channel channel = TaskOutput.getCurrentChannel();
 
         for (MultiThreadedTask task : tasks) {
             pool.execute(() -> {
-                try {
+                try (TaskOutput.Channel ignored = TaskOutput.forkChannel(channel)) {
                     int result = task.runTask();
 
                     if (result != 0) {
@@ -244,29 +491,88 @@ public class Utils {
         }
     }
 
-    public static boolean gitPull(@NotNull Git repo, @NotNull String ref) throws GitAPIException {
-        System.out.println("Pulling updates for '" + repo.getRepository().getDirectory().toString() + "'");
+    /**
+     * Fetches all updates from {@code origin} without changing the checked out revision
+     *
+     * @return {@code true} if any of the tracking refs changed
+     */
+    public static boolean gitFetch(@NotNull Git repo) throws GitAPIException {
+        System.out.println("Fetching updates for '" + repo.getRepository().getDirectory().toString() + "'");
 
-        try {
-            repo.reset().setRef("origin/master").setMode(ResetCommand.ResetType.HARD).call();
-        } catch (JGitInternalException ex) {
-            System.err.println("*** Warning, could not find origin/master ref, but continuing anyway.");
-            System.err.println("*** If further errors occur, delete '" + repo.getRepository().getDirectory().getParent() + "' and retry.");
-        }
+        // The working tree is left alone, gitCheckout(...) moves it to the commit that is built afterwards
         FetchResult result = repo.fetch().call();
 
         System.out.println("Successfully fetched updates for '" + repo.getRepository().getDirectory().toString() + "'");
 
-        repo.reset().setRef(ref).setMode(ResetCommand.ResetType.HARD).call();
-        if (ref.equals("master")) {
-            repo.reset().setRef("origin/master").setMode(ResetCommand.ResetType.HARD).call();
-        }
-        System.out.println("Checked out '" + ref + "' for '" + repo.getRepository().getDirectory().toString() + "'");
-
         // Return true if fetch changed any tracking refs.
         return !result.getTrackingRefUpdates().isEmpty();
     }
 
+    /**
+     * Resets the working tree of the given repository to {@code ref}
+     */
+    public static void gitCheckout(@NotNull Git repo, @NotNull String ref) throws GitAPIException {
+        // 'master' always means the latest upstream commit, which may not exist as local branch yet
+        repo.reset().setRef(ref.equals("master") ? "origin/master" : ref).setMode(ResetCommand.ResetType.HARD).call();
+        System.out.println("Checked out '" + ref + "' for '" + repo.getRepository().getDirectory().toString() + "'");
+    }
+
+    /**
+     * Reads a file directly from the object database, without the commit having to be checked out
+     *
+     * @param repo   The repository
+     * @param commit The commit to read the file from
+     * @param path   The path of the file inside the repository (using {@code /} as separator)
+     *
+     * @return The contents of the file or {@code null} if the commit does not contain it
+     */
+    @Nullable
+    public static String readGitFile(@NotNull Git repo, @NotNull String commit, @NotNull String path) throws IOException {
+        try (RevWalk revWalk = new RevWalk(repo.getRepository())) {
+            RevCommit revCommit = revWalk.parseCommit(ObjectId.fromString(commit));
+
+            try (TreeWalk treeWalk = TreeWalk.forPath(repo.getRepository(), path, revCommit.getTree())) {
+                if (treeWalk == null) {
+                    return null;
+                }
+
+                return new String(repo.getRepository().open(treeWalk.getObjectId(0)).getBytes(), StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    /**
+     * Hashes the given file without reading it into memory at once
+     *
+     * @param file     The file to hash
+     * @param hashAlgo The algorithm to use
+     *
+     * @return The hash as lower case hex string
+     *
+     * @throws IOException If the file could not be read
+     */
+    @NotNull
+    public static String hashFile(@NotNull File file, @NotNull HashAlgo hashAlgo) throws IOException {
+        return new Hasher(hashAlgo).update(file).getHash(hashAlgo);
+    }
+
+    /**
+     * @return The total amount of physical memory in MiB or {@code 4096} if it can't be determined
+     */
+    public static int getTotalMemoryMb() {
+        OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+            long totalMemory = ((com.sun.management.OperatingSystemMXBean) osBean).getTotalPhysicalMemorySize();
+
+            if (totalMemory > 0) {
+                return (int) Math.min(Integer.MAX_VALUE, totalMemory >> 20);
+            }
+        }
+
+        return 4096;
+    }
+
     public static String getCurrGitHeadHash(Git repo) throws GitAPIException {
         return repo.log().setMaxCount(1).call().iterator().next().getName();
     }
@@ -319,6 +625,10 @@ public class Utils {
         HttpsURLConnection.setDefaultHostnameVerifier(allHostsValid);
     }
 
+    public interface IOConsumer<T> {
+        void accept(T t) throws IOException;
+    }
+
     public interface MultiThreadedTask {
         /**
          * @return A numeric status code (e.g. exit code)